@@ -0,0 +1,77 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/**
+ * Writes files by writing a temp file next to them and renaming it into place,
+ * so a reader (or a crash) never sees half of one.
+ *
+ * Files.createTempFile makes owner-only (0600) files, and the rename would carry that over
+ * to the index, HEAD, objects and everything else. Temp files made here are 0644 instead,
+ * the same as a plain new file gets with the usual umask, and objects and packs are made
+ * read-only (0444) before they go in, since they never change once written.
+ * Permissions are only set where the file system has POSIX permissions at all.
+ */
+public class AtomicFile {
+    private static final Set<PosixFilePermission> READ_WRITE = PosixFilePermissions.fromString("rw-r--r--");
+    private static final Set<PosixFilePermission> READ_ONLY = PosixFilePermissions.fromString("r--r--r--");
+
+    public interface Writer {
+        void writeTo(Path temp) throws IOException;
+    }
+
+    /**
+     * Makes an empty 0644 temp file in dir, which has to be on the same file system as
+     * wherever the file ends up for the rename to be atomic.
+     */
+    public static Path createTemp(Path dir, String prefix) throws IOException {
+        Path parent = dir.toAbsolutePath();
+        Path temp = Files.createTempFile(parent, prefix, ".tmp");
+        if (isPosix(parent)) {
+            Files.setPosixFilePermissions(temp, READ_WRITE);
+        }
+        return temp;
+    }
+
+    /**
+     * For objects and packs: nothing should ever write to them again.
+     */
+    public static void makeReadOnly(Path file) throws IOException {
+        if (isPosix(file.toAbsolutePath().getParent())) {
+            Files.setPosixFilePermissions(file, READ_ONLY);
+        }
+    }
+
+    /**
+     * Renames temp over target in one step.
+     */
+    public static void replace(Path temp, Path target) throws IOException {
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Lets writer fill a temp file and then replaces target with it.
+     * If anything fails the temp file is deleted and target is left as it was.
+     */
+    public static void write(Path target, Writer writer) throws IOException {
+        Path temp = createTemp(target.toAbsolutePath().getParent(), target.getFileName().toString());
+        try {
+            writer.writeTo(temp);
+            replace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public static void write(Path target, byte[] content) throws IOException {
+        write(target, temp -> Files.write(temp, content));
+    }
+
+    private static boolean isPosix(Path dir) {
+        return dir != null && dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+}
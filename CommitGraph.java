@@ -0,0 +1,428 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * The commit-graph: every commit's parents, root tree, generation number and date in one
+ * fixed width binary table, so walking history never has to inflate and parse commit objects.
+ *
+ * git/objects/info/commit-graph is "CGPH", a version int and a count, then one entry per commit
+ * sorted by id: 20 byte id, 20 byte tree id, two 4 byte parent positions (-1 for none),
+ * a 4 byte generation number and an 8 byte date in epoch seconds. It's memory-mapped and
+ * looked up with a binary search, like a pack idx.
+ *
+ * A root commit has generation 1 and every other commit is one more than its highest parent,
+ * so a commit can only reach commits with a lower generation. That's what lets isAncestor
+ * and mergeBase stop early. Commits that aren't in the graph (made before it existed, say)
+ * are parsed from their objects and given an infinite generation, which never prunes anything,
+ * so the answers are still right, just slower.
+ */
+public class CommitGraph {
+    public static final String GRAPH_FILE = ObjectStore.OBJECTS_DIR + "/info/commit-graph";
+    private static final int MAGIC = 0x43475048;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = ObjectId.LENGTH * 2 + 4 + 4 + 4 + 8;
+    private static final int NO_PARENT = -1;
+    public static final int GENERATION_INFINITY = Integer.MAX_VALUE;
+
+    public static class Commit {
+        public final ObjectId id;
+        public final ObjectId tree;
+        public final List<ObjectId> parents;
+        public final int generation;
+        public final long date;
+
+        Commit(ObjectId id, ObjectId tree, List<ObjectId> parents, int generation, long date) {
+            this.id = id;
+            this.tree = tree;
+            this.parents = parents;
+            this.generation = generation;
+            this.date = date;
+        }
+    }
+
+    // newest first: highest generation, then latest date
+    private static final Comparator<Commit> NEWEST_FIRST = Comparator.<Commit>comparingInt(c -> c.generation)
+            .thenComparingLong(c -> c.date).reversed();
+
+    private final ByteBuffer data;
+    private final int count;
+
+    private CommitGraph(ByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.capacity() == 0) {
+            this.count = 0;
+            return;
+        }
+        if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("Not a commit-graph: " + GRAPH_FILE);
+        }
+        this.count = data.getInt(8);
+        if (data.capacity() < HEADER_SIZE + (long) count * ENTRY_SIZE) {
+            throw new IOException("Commit-graph is truncated");
+        }
+    }
+
+    /**
+     * Maps the commit-graph, an empty one if there isn't a file yet.
+     */
+    public static CommitGraph open() throws IOException {
+        File file = new File(GRAPH_FILE);
+        if (!file.exists()) {
+            return new CommitGraph(ByteBuffer.allocate(0));
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new CommitGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean contains(ObjectId id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * A commit from the graph, or parsed from its object if the graph doesn't have it.
+     */
+    public Commit get(ObjectId id) throws IOException {
+        int position = find(id);
+        return position >= 0 ? entry(position) : parse(id);
+    }
+
+    /**
+     * Reads a commit object: "tree: sha", any number of "parent: sha" lines (an empty one is
+     * a root commit), "author:", "date:" and "summary:".
+     */
+    public static Commit parse(ObjectId id) throws IOException {
+        ObjectId tree = null;
+        List<ObjectId> parents = new ArrayList<>();
+        long date = 0;
+        for (String line : ObjectStore.readString(id.toHex()).split("\n")) {
+            if (line.startsWith("tree:")) {
+                tree = ObjectId.fromHex(line.substring(5).trim());
+            } else if (line.startsWith("parent:")) {
+                String parent = line.substring(7).trim();
+                if (!parent.isEmpty()) {
+                    parents.add(ObjectId.fromHex(parent));
+                }
+            } else if (line.startsWith("date:")) {
+                date = parseDate(line.substring(5).trim());
+            } else if (line.startsWith("summary:")) {
+                // the summary is last and may run over several lines
+                break;
+            }
+        }
+        if (tree == null) {
+            throw new IOException("no tree reference found in commit " + id);
+        }
+        return new Commit(id, tree, Collections.unmodifiableList(parents), GENERATION_INFINITY, date);
+    }
+
+    static long parseDate(String date) {
+        try {
+            return OffsetDateTime.parse(date).toEpochSecond();
+        } catch (DateTimeParseException e) {
+            // hand written commits, their date just doesn't help ordering
+            return 0;
+        }
+    }
+
+    /**
+     * Everything reachable from start, newest first, each commit once.
+     */
+    public List<Commit> log(ObjectId start) throws IOException {
+        List<Commit> log = new ArrayList<>();
+        PriorityQueue<Commit> queue = new PriorityQueue<>(NEWEST_FIRST);
+        Set<ObjectId> seen = new HashSet<>();
+        queue.add(get(start));
+        seen.add(start);
+        while (!queue.isEmpty()) {
+            Commit commit = queue.poll();
+            log.add(commit);
+            for (ObjectId parent : commit.parents) {
+                if (seen.add(parent)) {
+                    queue.add(get(parent));
+                }
+            }
+        }
+        return log;
+    }
+
+    /**
+     * True if ancestor can be reached from descendant by following parents (a commit is its own ancestor).
+     * Anything with a generation at or below the ancestor's can't lead to it and isn't walked.
+     */
+    public boolean isAncestor(ObjectId ancestor, ObjectId descendant) throws IOException {
+        if (ancestor.equals(descendant)) {
+            return true;
+        }
+        int floor = get(ancestor).generation;
+        Deque<ObjectId> stack = new ArrayDeque<>();
+        Set<ObjectId> seen = new HashSet<>();
+        stack.push(descendant);
+        seen.add(descendant);
+        while (!stack.isEmpty()) {
+            Commit commit = get(stack.pop());
+            for (ObjectId parent : commit.parents) {
+                if (parent.equals(ancestor)) {
+                    return true;
+                }
+                if (seen.add(parent)) {
+                    Commit parentCommit = get(parent);
+                    if (parentCommit.generation > floor || floor == GENERATION_INFINITY) {
+                        stack.push(parent);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The best common ancestor of two commits, or null if they share no history.
+     * Both sides are walked together newest first, marking which side reached each commit.
+     * The first commit reached from both has the highest generation of any common ancestor,
+     * so it can't be an ancestor of another one.
+     */
+    public ObjectId mergeBase(ObjectId first, ObjectId second) throws IOException {
+        final int fromFirst = 1;
+        final int fromSecond = 2;
+        Map<ObjectId, Integer> reachedFrom = new HashMap<>();
+        PriorityQueue<Commit> queue = new PriorityQueue<>(NEWEST_FIRST);
+        reachedFrom.put(first, fromFirst);
+        reachedFrom.merge(second, fromSecond, (a, b) -> a | b);
+        queue.add(get(first));
+        if (!second.equals(first)) {
+            queue.add(get(second));
+        }
+        while (!queue.isEmpty()) {
+            Commit commit = queue.poll();
+            int flags = reachedFrom.get(commit.id);
+            if (flags == (fromFirst | fromSecond)) {
+                return commit.id;
+            }
+            for (ObjectId parent : commit.parents) {
+                Integer parentFlags = reachedFrom.get(parent);
+                if (parentFlags == null) {
+                    reachedFrom.put(parent, flags);
+                    queue.add(get(parent));
+                } else if ((parentFlags | flags) != parentFlags) {
+                    // already queued, just gets the other side's mark too
+                    reachedFrom.put(parent, parentFlags | flags);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a commit, and anything it can reach that's missing, to the graph.
+     * Only the new commits are parsed. The entries already in the file are copied over in blocks
+     * between the places the new ones sort into, and the only thing changed in them is their
+     * parent positions, moved along by however many new entries now sort before each parent.
+     * The file is still written out whole, since any insert moves every later position,
+     * but nothing already in it is parsed or looked up again.
+     * The new file goes to a temp file first and is renamed into place.
+     */
+    public static void add(ObjectId newCommit) throws IOException {
+        CommitGraph graph = open();
+        if (graph.contains(newCommit)) {
+            return;
+        }
+        // parse whatever the graph doesn't know about yet
+        Map<ObjectId, Commit> parsed = new HashMap<>();
+        Deque<ObjectId> pending = new ArrayDeque<>();
+        pending.push(newCommit);
+        while (!pending.isEmpty()) {
+            ObjectId id = pending.pop();
+            if (parsed.containsKey(id) || graph.contains(id)) {
+                continue;
+            }
+            Commit commit = parse(id);
+            if (commit.parents.size() > 2) {
+                throw new IOException("Commit-graph only holds two parents, " + id + " has " + commit.parents.size());
+            }
+            parsed.put(id, commit);
+            for (ObjectId parent : commit.parents) {
+                pending.push(parent);
+            }
+        }
+        // generations, parents first, without recursing down a long history
+        Map<ObjectId, Commit> added = new HashMap<>();
+        for (ObjectId id : parsed.keySet()) {
+            Deque<ObjectId> stack = new ArrayDeque<>();
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                ObjectId top = stack.peek();
+                if (added.containsKey(top)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = parsed.get(top);
+                int generation = 0;
+                boolean ready = true;
+                for (ObjectId parent : commit.parents) {
+                    int done = graph.generationOf(parent, added);
+                    if (done == 0) {
+                        stack.push(parent);
+                        ready = false;
+                    } else {
+                        generation = Math.max(generation, done);
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    added.put(top, new Commit(top, commit.tree, commit.parents, generation + 1, commit.date));
+                }
+            }
+        }
+        graph.writeWith(added);
+    }
+
+    // a commit's generation from the graph or from the ones just added, 0 if it has none yet
+    private int generationOf(ObjectId id, Map<ObjectId, Commit> added) {
+        Commit commit = added.get(id);
+        if (commit != null) {
+            return commit.generation;
+        }
+        int position = find(id);
+        return position >= 0 ? data.getInt(HEADER_SIZE + position * ENTRY_SIZE + ObjectId.LENGTH * 2 + 8) : 0;
+    }
+
+    // writes this graph's entries plus the added ones, merged in id order
+    private void writeWith(Map<ObjectId, Commit> added) throws IOException {
+        List<ObjectId> addedIds = new ArrayList<>(added.keySet());
+        Collections.sort(addedIds);
+        // the old position each new entry goes in front of, in order since the ids are sorted
+        int[] insertAt = new int[addedIds.size()];
+        for (int i = 0; i < insertAt.length; i++) {
+            insertAt[i] = -(find(addedIds.get(i)) + 1);
+        }
+        int total = count + addedIds.size();
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + total * ENTRY_SIZE);
+        out.putInt(MAGIC).putInt(VERSION).putInt(total);
+        byte[] idBytes = new byte[ObjectId.LENGTH];
+        int copied = 0;
+        for (int i = 0; i <= addedIds.size(); i++) {
+            int end = i < addedIds.size() ? insertAt[i] : count;
+            int length = (end - copied) * ENTRY_SIZE;
+            if (length > 0) {
+                out.put(out.position(), data, HEADER_SIZE + copied * ENTRY_SIZE, length);
+            }
+            for (int offset = out.position(); offset < out.position() + length; offset += ENTRY_SIZE) {
+                for (int parent = 0; parent < 2; parent++) {
+                    int parentOffset = offset + ObjectId.LENGTH * 2 + parent * 4;
+                    int position = out.getInt(parentOffset);
+                    if (position != NO_PARENT) {
+                        out.putInt(parentOffset, shifted(position, insertAt));
+                    }
+                }
+            }
+            out.position(out.position() + length);
+            copied = end;
+            if (i == addedIds.size()) {
+                break;
+            }
+            Commit commit = added.get(addedIds.get(i));
+            commit.id.copyTo(idBytes, 0);
+            out.put(idBytes);
+            commit.tree.copyTo(idBytes, 0);
+            out.put(idBytes);
+            for (int parent = 0; parent < 2; parent++) {
+                out.putInt(parent < commit.parents.size() ? newPosition(commit.parents.get(parent), addedIds, insertAt) : NO_PARENT);
+            }
+            out.putInt(commit.generation);
+            out.putLong(commit.date);
+        }
+        Path graphPath = Paths.get(GRAPH_FILE);
+        Files.createDirectories(graphPath.getParent());
+        AtomicFile.write(graphPath, out.array());
+    }
+
+    // where a commit ends up once the added entries are merged in
+    private int newPosition(ObjectId id, List<ObjectId> addedIds, int[] insertAt) {
+        int added = Collections.binarySearch(addedIds, id);
+        if (added >= 0) {
+            return insertAt[added] + added;
+        }
+        return shifted(find(id), insertAt);
+    }
+
+    // an old position moves along by the number of new entries that go in front of it
+    private static int shifted(int position, int[] insertAt) {
+        int low = 0;
+        int high = insertAt.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (insertAt[mid] <= position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return position + low;
+    }
+
+    private Commit entry(int position) {
+        int offset = HEADER_SIZE + position * ENTRY_SIZE;
+        List<ObjectId> parents = new ArrayList<>(2);
+        for (int i = 0; i < 2; i++) {
+            int parent = data.getInt(offset + ObjectId.LENGTH * 2 + i * 4);
+            if (parent != NO_PARENT) {
+                parents.add(idAt(parent));
+            }
+        }
+        return new Commit(idAt(position), readId(offset + ObjectId.LENGTH), Collections.unmodifiableList(parents),
+                data.getInt(offset + ObjectId.LENGTH * 2 + 8), data.getLong(offset + ObjectId.LENGTH * 2 + 12));
+    }
+
+    private ObjectId idAt(int position) {
+        return readId(HEADER_SIZE + position * ENTRY_SIZE);
+    }
+
+    private ObjectId readId(int offset) {
+        byte[] id = new byte[ObjectId.LENGTH];
+        data.get(offset, id);
+        return ObjectId.fromBytes(id);
+    }
+
+    private int find(ObjectId id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = idAt(mid).compareTo(id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        // not there, -(where it would go + 1) like Arrays.binarySearch
+        return -(low + 1);
+    }
+}
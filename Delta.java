@@ -0,0 +1,212 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary deltas between two versions of a blob, used inside packs.
+ *
+ * A delta is varint(base length), varint(result length), then a list of ops:
+ * a 0 byte followed by varint(offset) and varint(length) copies that range out of the base,
+ * a byte n from 1 to 127 is followed by n literal bytes to insert.
+ *
+ * Matches are found like git's diff-delta: every 16 byte block of the base goes into a
+ * hash table, and a rolling hash over the target looks for blocks it has seen.
+ */
+public class Delta {
+    private static final int BLOCK = 16;
+    private static final int MAX_INSERT = 127;
+    private static final int PRIME = 31;
+    // PRIME to the power BLOCK - 1, for rolling the oldest byte out
+    private static final int OUT_FACTOR;
+
+    static {
+        int f = 1;
+        for (int i = 0; i < BLOCK - 1; i++) {
+            f *= PRIME;
+        }
+        OUT_FACTOR = f;
+    }
+
+    /**
+     * A base with its block hash table already built, so one base can be diffed against
+     * many targets (every blob in the pack window) while the table is only built once.
+     * Open addressing over two int arrays, nothing gets boxed.
+     */
+    public static class Base {
+        final byte[] content;
+        private final int[] hashes;
+        // offset + 1 of the first block with that hash, 0 for an empty slot
+        private final int[] offsets;
+        private final int mask;
+
+        public Base(byte[] content) {
+            this.content = content;
+            int size = Integer.highestOneBit(Math.max(1, content.length / BLOCK) * 2 + 1) * 2;
+            hashes = new int[size];
+            offsets = new int[size];
+            mask = size - 1;
+            for (int offset = 0; offset + BLOCK <= content.length; offset += BLOCK) {
+                int h = hash(content, offset);
+                int slot = h & mask;
+                while (offsets[slot] != 0 && hashes[slot] != h) {
+                    slot = (slot + 1) & mask;
+                }
+                // the first block with a hash wins, same as putIfAbsent
+                if (offsets[slot] == 0) {
+                    hashes[slot] = h;
+                    offsets[slot] = offset + 1;
+                }
+            }
+        }
+
+        // offset of a base block with hash h, or -1
+        int find(int h) {
+            int slot = h & mask;
+            while (offsets[slot] != 0) {
+                if (hashes[slot] == h) {
+                    return offsets[slot] - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Makes a delta that turns base into target.
+     */
+    public static byte[] create(byte[] base, byte[] target) {
+        return create(new Base(base), target);
+    }
+
+    /**
+     * Same as create(byte[], byte[]), reusing base's block table.
+     */
+    public static byte[] create(Base base, byte[] target) {
+        byte[] content = base.content;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target.length / 4 + 16);
+        writeVarint(out, content.length);
+        writeVarint(out, target.length);
+
+        ByteArrayOutputStream insert = new ByteArrayOutputStream();
+        int i = 0;
+        int rolling = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i < target.length) {
+            if (i + BLOCK <= target.length) {
+                int candidate = base.find(rolling);
+                if (candidate >= 0) {
+                    int length = matchLength(content, candidate, target, i);
+                    if (length >= BLOCK) {
+                        flushInsert(out, insert);
+                        out.write(0);
+                        writeVarint(out, candidate);
+                        writeVarint(out, length);
+                        i += length;
+                        if (i + BLOCK <= target.length) {
+                            rolling = hash(target, i);
+                        }
+                        continue;
+                    }
+                }
+            }
+            insert.write(target[i]);
+            if (insert.size() == MAX_INSERT) {
+                flushInsert(out, insert);
+            }
+            if (i + BLOCK < target.length) {
+                rolling = (rolling - (target[i] & 0xFF) * OUT_FACTOR) * PRIME + (target[i + BLOCK] & 0xFF);
+            }
+            i++;
+        }
+        flushInsert(out, insert);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuilds the target from the base and a delta made by create.
+     */
+    public static byte[] apply(byte[] base, byte[] delta) throws IOException {
+        int[] pos = {0};
+        long baseLength = readVarint(delta, pos);
+        long resultLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw new IOException("Delta base has the wrong size");
+        }
+        if (resultLength > Integer.MAX_VALUE - 8) {
+            throw new IOException("Delta result too big");
+        }
+        byte[] result = new byte[(int) resultLength];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xFF;
+            if (op == 0) {
+                long offset = readVarint(delta, pos);
+                long length = readVarint(delta, pos);
+                if (offset + length > base.length || written + length > result.length) {
+                    throw new IOException("Delta copy out of range");
+                }
+                System.arraycopy(base, (int) offset, result, written, (int) length);
+                written += length;
+            } else {
+                if (op > MAX_INSERT || pos[0] + op > delta.length || written + op > result.length) {
+                    throw new IOException("Bad delta insert");
+                }
+                System.arraycopy(delta, pos[0], result, written, op);
+                pos[0] += op;
+                written += op;
+            }
+        }
+        if (written != result.length) {
+            throw new IOException("Delta produced the wrong size");
+        }
+        return result;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for (int i = 0; i < BLOCK; i++) {
+            h = h * PRIME + (data[offset + i] & 0xFF);
+        }
+        return h;
+    }
+
+    private static int matchLength(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+        int length = 0;
+        while (baseOffset + length < base.length && targetOffset + length < target.length
+                && base[baseOffset + length] == target[targetOffset + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    private static void flushInsert(ByteArrayOutputStream out, ByteArrayOutputStream insert) {
+        if (insert.size() > 0) {
+            out.write(insert.size());
+            out.writeBytes(insert.toByteArray());
+            insert.reset();
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] pos) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            if (pos[0] >= data.length || shift > 56) {
+                throw new IOException("Bad delta varint");
+            }
+            int b = data[pos[0]++] & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
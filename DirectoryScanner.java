@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lists the working directory for treeify, addTree and status.
+ * Each entry's type, size and mtime come from a single readAttributes call while the
+ * directory is being read, instead of an isFile, isDirectory and length call each later.
+ * Relative paths are built by appending names to the parent's relative path, the root
+ * is only resolved once when the scanner is made.
+ * Symbolic links are stat'ed as links, not followed, so they are neither files nor directories
+ * and every walk skips them, the way walkFileTree does. A link back up the tree can't loop.
+ */
+public class DirectoryScanner {
+
+    public static class Entry {
+        public final Path path;
+        public final String name;
+        // relative to the scanner's root, using '/' like the index
+        public final String relativePath;
+        public final BasicFileAttributes attrs;
+
+        Entry(Path path, String name, String relativePath, BasicFileAttributes attrs) {
+            this.path = path;
+            this.name = name;
+            this.relativePath = relativePath;
+            this.attrs = attrs;
+        }
+
+        public boolean isFile() {
+            return attrs.isRegularFile();
+        }
+
+        public boolean isDirectory() {
+            return attrs.isDirectory();
+        }
+    }
+
+    private static final Comparator<Entry> BY_NAME = Comparator.comparing(entry -> entry.name, Index.PATH_ORDER);
+
+    private final Path root;
+
+    public DirectoryScanner(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * A scanner rooted at the repo, which is the directory the program runs in.
+     */
+    public static DirectoryScanner ofWorkingDirectory() {
+        return new DirectoryScanner(Paths.get(System.getProperty("user.dir")));
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * The path of dir relative to the root, using '/', "" for the root itself.
+     */
+    public String relativize(Path dir) {
+        return root.relativize(dir.toAbsolutePath().normalize()).toString().replace(dir.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * The files and directories directly inside dir, sorted by name.
+     * Anything that disappears while reading is left out.
+     * @param relativeDir dir's own relative path, as relativize would give it.
+     */
+    public List<Entry> list(Path dir, String relativeDir) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                String name = child.getFileName().toString();
+                String relativePath = relativeDir.isEmpty() ? name : relativeDir + "/" + name;
+                entries.add(new Entry(child, name, relativePath, attrs));
+            }
+        }
+        entries.sort(BY_NAME);
+        return entries;
+    }
+
+    /**
+     * Every regular file under dir, in path order, leaving out the repo's own git directory.
+     */
+    public List<Entry> files(Path dir) throws IOException {
+        List<Entry> files = new ArrayList<>();
+        collectFiles(dir, relativize(dir), files);
+        files.sort(Comparator.comparing(entry -> entry.relativePath, Index.PATH_ORDER));
+        return files;
+    }
+
+    private void collectFiles(Path dir, String relativeDir, List<Entry> files) throws IOException {
+        for (Entry entry : list(dir, relativeDir)) {
+            if (entry.isFile()) {
+                files.add(entry);
+            } else if (entry.isDirectory() && !entry.relativePath.equals("git")) {
+                collectFiles(entry.path, entry.relativePath, files);
+            }
+        }
+    }
+}
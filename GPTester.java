@@ -171,13 +171,13 @@ public class GPTester {
         byte[] originalContent = Files.readAllBytes(file.toPath());
         String expectedHash = Git.hashFile(file.getAbsolutePath());
         Git.createBlobFiles(file.getAbsolutePath());
-        File blobFile = new File("git/objects", expectedHash);
+        File blobFile = ObjectStore.objectFile(expectedHash);
         if (!blobFile.exists()) {
             System.out.println("The blob file " + file.getName() + "is missing");
             allPassed = false;
 		break;
         }
-        byte[] blobContent = Files.readAllBytes(blobFile.toPath());
+        byte[] blobContent = ObjectStore.readBytes(expectedHash);
         if (!java.util.Arrays.equals(originalContent, blobContent)) {
             System.out.println("Content inside mismatches for " + file.getName());
             allPassed = false;
@@ -227,9 +227,7 @@ public class GPTester {
             File objectsDir = new File("git/objects");
             if(objectsDir.exists() && objectsDir.isDirectory()){
                 for (File random : objectsDir.listFiles()) {
-                    if(random.isFile()){
-                        random.delete();
-                    }
+                    deleteRecursively(random);
                 }
             }
             File indexFile = new File("git", "index");
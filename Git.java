@@ -1,17 +1,22 @@
 import java.io.BufferedInputStream;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Git{
     public static void main(String[] args) throws IOException {
@@ -66,14 +71,20 @@ public class Git{
     }
 
     public static String hashFile(String filePath){    
+        GitEvents.HashFile event = new GitEvents.HashFile();
+        event.begin();
+        event.path = filePath;
         try (BufferedInputStream bufferedInputStream = new BufferedInputStream(new FileInputStream(filePath))){
             MessageDigest digest = MessageDigest.getInstance("SHA-1");
             byte[] buffer = new byte[8192];
             int bytesRead;
             while((bytesRead = bufferedInputStream.read(buffer)) != -1){
                 digest.update(buffer, 0, bytesRead);
+                event.bytes += bytesRead;
             }
+            ObjectStore.BYTES_HASHED.add(event.bytes);
             byte[] hashBytes = digest.digest();
+            event.objects = 1;
             return makeItHex(hashBytes);
         } catch (NoSuchAlgorithmException e) {
             System.err.println("SHA-1 is unavailable right now.");
@@ -81,6 +92,8 @@ public class Git{
             System.err.println("That file does not exist");
         }catch (IOException e) {
             System.err.println("Cannot read the file!");
+        } finally {
+            event.commit();
         }
         return null;
     }
@@ -97,56 +110,48 @@ public class Git{
         return new String(hexskis);
     }
 
-    public static void createBlobFiles(String filePath) throws IOException{
-	byte[] fileBytes = Files.readAllBytes(Paths.get(filePath));
-	String hash = hashFile(filePath);
-	File blobFile = new File("git/objects", hash);
-        if (!blobFile.exists()) {
-            Files.write(blobFile.toPath(), fileBytes);
+    // hashes and compresses in one pass, see ObjectStore.writeBlob
+    public static String createBlobFiles(String filePath) throws IOException{
+        GitEvents.CreateBlob event = new GitEvents.CreateBlob();
+        event.begin();
+        try {
+            String hash = ObjectStore.writeBlob(filePath);
+            if (event.isEnabled()) {
+                event.path = filePath;
+                event.bytes = new File(filePath).length();
+                event.objects = 1;
+            }
+            return hash;
+        } finally {
+            event.commit();
         }
-}
+    }
 
-    public static void updateIndex(String hashString, String fileName) throws IOException{
-        File indexFile = new File("git", "index");
-        Path relativeRootDirPath = Paths.get(System.getProperty("user.dir")).toAbsolutePath(); // used stackoverlow to get pwd in java
-        Path filePath = Paths.get(fileName).toAbsolutePath();
-        String relativePath = relativeRootDirPath.relativize(filePath).toString(); //used baeldung for relativize
-        
-        List<String> lines = new ArrayList<>();
-        if(indexFile.exists()){
-            lines = Files.readAllLines(indexFile.toPath());
+    public static MessageDigest newDigest() throws IOException{
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 is unavailable right now.", e);
         }
-        String toAdd = hashString + " " + relativePath;
-        
-        boolean haveYouUpdated = false;
-        boolean alreadyThere = false;
-        for (int i = 0; i < lines.size(); i++) {
-            String theLine = lines.get(i);
-            if(theLine.endsWith(" " + relativePath)){
-                //if(!theLine.startsWith(hashString + " ")){
-                if(theLine.equals(toAdd)){
-                    alreadyThere = true;
-                }
-                else{
-                    lines.set(i, toAdd);
-                    haveYouUpdated = true;
-                }
-                break;
+    }
+
+    // at most one load and one write, see Index
+    public static void updateIndex(String hashString, String fileName) throws IOException{
+        GitEvents.UpdateIndex event = new GitEvents.UpdateIndex();
+        event.begin();
+        event.path = fileName;
+        try {
+            // already staged like that? a binary search on the mapped index says so without loading it
+            if(hashString.equals(MappedIndex.open().lookupHash(Index.relativePath(fileName)))){
+                return;
             }
-        }
-        if(alreadyThere){
-            return;
-        }
-        if(!haveYouUpdated){
-            lines.add(toAdd);
-        }
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(indexFile))){
-            for (int i = 0; i < lines.size(); i++) {
-                bw.write(lines.get(i));
-                if(i < lines.size() - 1){
-                    bw.newLine();
-                }
+            Index index = Index.load();
+            if(index.put(Index.relativePath(fileName), hashString)){
+                index.flush();
+                event.objects = 1;
             }
+        } finally {
+            event.commit();
         }
     }
 
@@ -155,213 +160,148 @@ public class Git{
             if(!dir.exists()){
                 throw new Exception("broski that is not a real path...");
             }
-            List<String> treeList = new ArrayList<>();
-            File[] everythingList = dir.listFiles();
-            if(everythingList == null){
-                everythingList = new File[0];
+            GitEvents.Treeify event = new GitEvents.Treeify();
+            event.begin();
+            event.path = path;
+            DirectoryScanner scanner = DirectoryScanner.ofWorkingDirectory();
+            TreeifyTask root = new TreeifyTask(dir.toPath(), scanner.relativize(dir.toPath()), scanner, new LongAdder(), new LongAdder());
+            ForkJoinPool pool = new ForkJoinPool(Integer.getInteger("git.threads", Runtime.getRuntime().availableProcessors()));
+            try {
+                return pool.invoke(root);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+                event.objects = root.files.sum();
+                event.bytes = root.bytes.sum();
+                event.commit();
             }
-            for (File file : everythingList) {
-                if(file.isFile()){
-                    createBlobFiles(file.getAbsolutePath());
-                    String blobHash = hashFile(file.getAbsolutePath());
-                    Path relativeRootDirPath = Paths.get(System.getProperty("user.dir")).toAbsolutePath();
-                    Path filePath = file.toPath().toAbsolutePath();
-                    String relativePath = relativeRootDirPath.relativize(filePath).toString();
-                    treeList.add("blob " + blobHash + " " + relativePath);
-                }
-                if(file.isDirectory()){
-                    String subdirHash = treeify(file.getAbsolutePath());
-                    Path relativeRootDirPath = Paths.get(System.getProperty("user.dir")).toAbsolutePath();
-                    Path filePath = file.toPath().toAbsolutePath();
-                    String relativePath = relativeRootDirPath.relativize(filePath).toString();
+        }
+
+    // one task per directory, it forks its files and subdirectories and then joins them in name order,
+    // so the tree comes out the same no matter which thread finishes first
+    private static class TreeifyTask extends RecursiveTask<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final String relativeDir;
+        private final DirectoryScanner scanner;
+        // shared by every task in one treeify, for its GitEvents.Treeify
+        private final LongAdder files;
+        private final LongAdder bytes;
+
+        TreeifyTask(Path dir, String relativeDir, DirectoryScanner scanner, LongAdder files, LongAdder bytes) {
+            this.dir = dir;
+            this.relativeDir = relativeDir;
+            this.scanner = scanner;
+            this.files = files;
+            this.bytes = bytes;
+        }
 
-                    treeList.add("tree " + subdirHash + " " + relativePath);
+        @Override
+        protected String compute() {
+            List<DirectoryScanner.Entry> everythingList;
+            try {
+                everythingList = scanner.list(dir, relativeDir);
+            } catch (IOException e) {
+                // same as listFiles giving back null, an unreadable directory is an empty tree
+                everythingList = List.of();
+            }
+            List<String> types = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            List<ForkJoinTask<String>> hashes = new ArrayList<>();
+            for (DirectoryScanner.Entry entry : everythingList) {
+                if(entry.isFile()){
+                    types.add("blob");
+                    names.add(entry.relativePath);
+                    files.increment();
+                    bytes.add(entry.attrs.size());
+                    hashes.add(ForkJoinTask.adapt(() -> createBlobFiles(entry.path.toString())).fork());
+                }
+                else if(entry.isDirectory()){
+                    types.add("tree");
+                    names.add(entry.relativePath);
+                    hashes.add(new TreeifyTask(entry.path, entry.relativePath, scanner, files, bytes).fork());
                 }
             }
-
+            List<String> treeList = new ArrayList<>();
+            for (int i = 0; i < hashes.size(); i++) {
+                treeList.add(types.get(i) + " " + join(hashes.get(i)) + " " + names.get(i));
+            }
             String everything = String.join("\n", treeList); // stack overflow
-
-            MessageDigest digest = MessageDigest.getInstance("SHA-1");
-            byte[] bytes = everything.getBytes();
-            byte[] hashBytes = digest.digest(bytes);
-            String treeHash = makeItHex(hashBytes);
-
-            // do i need to save this tree someplace?
-
-            File treeFile = new File("git/objects", treeHash);
-            if(!treeFile.exists()){
-                Files.write(treeFile.toPath(), everything.getBytes());
+            try {
+                return ObjectStore.writeObject("tree", everything.getBytes());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            return treeHash;
         }
 
-    public static void parseNormalize() throws IOException{
-        File index = new File("git", "index");
-        File workingList = new File("git", "workingList");
-        List<String> indexLines = Files.readAllLines(index.toPath());
-        List<String> workingLines = new ArrayList<>();
-        for (String string : indexLines) {
-            workingLines.add("blob " + string);
+        // adapt() wraps the IOException from createBlobFiles in a RuntimeException, and a join
+        // across threads can wrap that again, so the whole chain is searched for it
+        private static String join(ForkJoinTask<String> task) {
+            try {
+                return task.join();
+            } catch (UncheckedIOException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw new UncheckedIOException(GitWrapper.asIOException(e));
+            }
         }
-        Files.write(workingList.toPath(), workingLines);
     }
 
-    public static void sortWorkingList() throws IOException{
-        File workingList = new File("git", "workingList");
-        List<String> workLines = Files.readAllLines(workingList.toPath());
-        boolean didYouSwap = true;
-        while(didYouSwap){
-            didYouSwap = false;
-            for (int i = 0; i < workLines.size() - 1; i++) {
-                String firstLine = workLines.get(i);
-                String secondLine = workLines.get(i + 1);
-                String firstPath = getPathFromWorkingListLine(firstLine);
-                String secoPath = getPathFromWorkingListLine(secondLine);
-                if(firstPath.compareTo(secoPath) > 0){
-                    workLines.set(i, secondLine);
-                    workLines.set(i + 1, firstLine);
-                    didYouSwap = true;
+    /**
+     * Writes a commit object for rootTreeHash whose parent is whatever HEAD points at,
+     * adds it to the commit-graph and moves HEAD to it.
+     * @return The hash of the new commit.
+     */
+    public static String createCommit(String author, String message, String rootTreeHash) throws IOException{
+        String parent = readHead();
+        String date = OffsetDateTime.now().truncatedTo(ChronoUnit.SECONDS).toString();
+        String contents = "tree: " + rootTreeHash + "\nparent: " + parent + "\nauthor: " + author
+                + "\ndate: " + date + "\nsummary: " + message;
+        String commitHash = ObjectStore.writeObject("commit", contents.getBytes(StandardCharsets.UTF_8));
+        // graph first, so HEAD never points at a commit the graph hasn't heard of
+        CommitGraph.add(ObjectId.fromHex(commitHash));
+        writeHead(commitHash);
+        return commitHash;
+    }
 
-                }
-            }
-        }
-        Files.write(workingList.toPath(), workLines);
+    // replaced in one rename, so HEAD is always either the old commit or the new one
+    public static void writeHead(String commitHash) throws IOException{
+        AtomicFile.write(new File("git", "HEAD").toPath(), commitHash.getBytes(StandardCharsets.UTF_8));
     }
 
-    public static String getPathFromWorkingListLine(String line){
-        if(line.length() > 46){
-            return line.substring(46);
-        }
-        return line;
+    // the commit HEAD points at, "" before the first commit
+    public static String readHead() throws IOException{
+        File headFile = new File("git", "HEAD");
+        return headFile.exists() ? Files.readString(headFile.toPath()).trim() : "";
     }
 
-    public static String findLeafMostParentDir(List<String> lines){
-        String deepest = null;
-        int maxDepth = -1;
-        for (String string : lines) {
-            String path = getPathFromWorkingListLine(string);
-            int depth = 0;
-            for (int i = 0; i < path.length(); i++) {
-                if(path.charAt(i) == '/'){
-                    depth ++;
-                }
-            }
-            if(depth > maxDepth && path.contains("/")){
-                maxDepth = depth;
-                deepest = path.substring(0, path.lastIndexOf("/")); // used w3 schools
-            }
-        }
-        return deepest;
+    // everything after "summary: ", which can run over several lines
+    public static String commitSummary(String commitHash) throws IOException{
+        String contents = ObjectStore.readString(commitHash);
+        int start = contents.indexOf("summary:");
+        return start < 0 ? "" : contents.substring(start + "summary:".length()).trim();
     }
 
+    // builds the trees straight from the index in memory, only rehashing directories that
+    // changed since last time, see TreeBuilder and the cache-tree in Index
     public static String workToTree() throws Exception{
-        File index = new File("git", "index");
-        if(index.length() == 0){
-            // Handle empty index by creating an empty tree object
-            String emptyContent = "";
-            MessageDigest digest = MessageDigest.getInstance("SHA-1");
-            byte[] bytes = emptyContent.getBytes();
-            byte[] hashBytes = digest.digest(bytes);
-            String emptyTreeHash = makeItHex(hashBytes);
-            
-            File emptyTreeFile = new File("git/objects", emptyTreeHash);
-            if(!emptyTreeFile.exists()){
-                Files.write(emptyTreeFile.toPath(), emptyContent.getBytes());
-            }
-            return emptyTreeHash;
-        }
-        parseNormalize();
-        File workingListFile = new File("git", "workingList");
-        if(!workingListFile.exists()){
-            throw new Exception("brochacho, there is no working list file");
-        }
-        List<String> lines = Files.readAllLines(workingListFile.toPath());
-        String lastTreeHash = null;
-
-        sortWorkingList();
-        while(true){
-            String leafDir = findLeafMostParentDir(lines);
-            if(leafDir == null){
-                break;
-            }
-
-            List<String> children = new ArrayList<>();
-            for (String line : lines) {
-                String path = getPathFromWorkingListLine(line);
-                if(path.startsWith(leafDir + "/")){
-                    String relative = path.substring(leafDir.length() + 1);
-                    if(!relative.contains("/")){
-                        children.add(line);
-                    }
-                }
-            }
-
-            String treeContents = "";
-            for (String string : children) {
-                String[] parts = string.split(" "); 
-                String type = parts[0];
-                String hash = parts[1];
-                String path = parts[2];
-                String name = path.substring(path.lastIndexOf("/") + 1);
-                treeContents = treeContents + type + " " + hash + " " + name + "\n";
-            }
-            //maybe fixes last line issue, only changed this for testing! yay it worked.
-            treeContents = treeContents.substring(0, treeContents.length() - 1);
-
-            File tempFileForHashingPurposesBcIDONTWantToCreateANewHelperMethod = File.createTempFile("tree", ".txt");
-            Files.write(tempFileForHashingPurposesBcIDONTWantToCreateANewHelperMethod.toPath(), treeContents.getBytes());
-
-
-            String treeHash = hashFile(tempFileForHashingPurposesBcIDONTWantToCreateANewHelperMethod.getAbsolutePath());
-            tempFileForHashingPurposesBcIDONTWantToCreateANewHelperMethod.delete();
-
-            File treeFile = new File("git/objects", treeHash);
-            if(!treeFile.exists()){
-                Files.write(treeFile.toPath(), treeContents.getBytes());
-                lastTreeHash = treeHash;
-            }
-
-            List<String> updatedLines = new ArrayList<>();
-            for (String line : lines) {
-                String path = getPathFromWorkingListLine(line);
-                if(!path.equals(leafDir) && !path.startsWith(leafDir + "/")){
-                    updatedLines.add(line);
-                }
-            }
-            updatedLines.add("tree " + treeHash + " " + leafDir);
-            lines = updatedLines;
-            Files.write(workingListFile.toPath(), lines);
-            sortWorkingList();
-        }
-        //just added this for testing, need to add the final thing
-        if(!lines.isEmpty()){
-            String treeContents = "";
-            for (String string : lines) {
-                String[] parts = string.split(" "); 
-                String type = parts[0];
-                String hash = parts[1];
-                String path = parts[2];
-                String name = path.substring(path.lastIndexOf("/") + 1);
-                treeContents = treeContents + type + " " + hash + " " + name + "\n";
-            }
-            treeContents = treeContents.substring(0, treeContents.length() - 1);
-            File tempFileForHashingPurposesBcIDONTWantToCreateANewHelperMethod = File.createTempFile("tree", ".txt");
-            Files.write(tempFileForHashingPurposesBcIDONTWantToCreateANewHelperMethod.toPath(), treeContents.getBytes());
-
-
-            String treeHash = hashFile(tempFileForHashingPurposesBcIDONTWantToCreateANewHelperMethod.getAbsolutePath());
-            tempFileForHashingPurposesBcIDONTWantToCreateANewHelperMethod.delete();
+        return workToTree(Index.load());
+    }
 
-            File treeFile = new File("git/objects", treeHash);
-            if(!treeFile.exists()){
-                Files.write(treeFile.toPath(), treeContents.getBytes());
-            }
-            String finalContent = "tree " + treeHash + " (root)";
-            Files.write(workingListFile.toPath(), finalContent.getBytes());
-            return treeHash;
+    // same, for a caller that already has the index loaded
+    public static String workToTree(Index index) throws Exception{
+        GitEvents.WorkToTree event = new GitEvents.WorkToTree();
+        event.begin();
+        try {
+            event.objects = index.size();
+            String rootHash = TreeBuilder.writeTree(index);
+            index.flush();
+            return rootHash;
+        } finally {
+            event.commit();
         }
-        workingListFile.delete();
-        return "you failed";
     }
 
     // public static void workToTree(){
@@ -0,0 +1,77 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events for the repository operations, so a slow add or checkout
+ * can be looked at in a recording instead of guessed at from System.out.
+ *
+ * Each operation makes its event, calls begin(), does its work, fills in the fields and calls commit().
+ * With no recording running, begin and commit are close to free and the fields are just stores.
+ * Anything that costs extra to work out for an event (a stat, say) should check isEnabled() first.
+ *
+ * Record with java -XX:StartFlightRecording=filename=git.jfr,settings=profile ... and look
+ * under the Git category in JDK Mission Control, or run jfr print --categories Git git.jfr.
+ */
+public class GitEvents {
+
+    @Category("Git")
+    @StackTrace(false)
+    abstract static class GitEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Objects")
+        long objects;
+    }
+
+    @Name("git.HashFile")
+    @Label("Hash File")
+    @Description("SHA-1 of a file's contents, bytes is how much was read")
+    public static class HashFile extends GitEvent {
+    }
+
+    @Name("git.CreateBlob")
+    @Label("Create Blob")
+    @Description("A file hashed, compressed and written as a blob object")
+    public static class CreateBlob extends GitEvent {
+    }
+
+    @Name("git.UpdateIndex")
+    @Label("Update Index")
+    @Description("Paths staged in the index, from the load through the flush. objects is how many entries changed, 0 if it already matched")
+    public static class UpdateIndex extends GitEvent {
+    }
+
+    @Name("git.WorkToTree")
+    @Label("Write Tree")
+    @Description("Trees built from the index, objects is the number of staged entries")
+    public static class WorkToTree extends GitEvent {
+    }
+
+    @Name("git.Treeify")
+    @Label("Treeify")
+    @Description("Trees built straight from a directory, objects and bytes count the files hashed")
+    public static class Treeify extends GitEvent {
+    }
+
+    @Name("git.RestoreTree")
+    @Label("Restore Tree")
+    @Description("A whole tree written out, objects and bytes count the files written")
+    public static class RestoreTree extends GitEvent {
+    }
+
+    @Name("git.Checkout")
+    @Label("Checkout")
+    @Description("A commit checked out, path is the commit, objects and bytes count the files written")
+    public static class Checkout extends GitEvent {
+    }
+}
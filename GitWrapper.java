@@ -1,9 +1,39 @@
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class GitWrapper {
+    private static final long TRANSFER_CHUNK = 1 << 20;
+    private static final Metrics.Counter FILES_STAGED = Metrics.counter("git_files_staged_total",
+            "Files whose blob was written to the index by add.");
+    private static final Metrics.Histogram CHECKOUT_TIME = Metrics.histogram("git_checkout_seconds",
+            "Time taken by checkout, including the tree diff.");
+    private static final Metrics.Counter CHECKOUT_FILES = Metrics.counter("git_checkout_files_total",
+            "Files written by checkout and restoreTree.");
+    private static final Metrics.Counter CHECKOUT_BYTES = Metrics.counter("git_checkout_bytes_total",
+            "Bytes written by checkout and restoreTree.");
+    private static final Metrics.Histogram STATUS_TIME = Metrics.histogram("git_status_seconds",
+            "Time taken by status, scanning the working directory and diffing the index against HEAD.");
+    private int parallelism = Integer.getInteger("git.threads", Runtime.getRuntime().availableProcessors());
 
     /**
      * Initializes a new Git repository.
@@ -31,23 +61,198 @@ public class GitWrapper {
      * @param filePath The path to the file to be staged.
      */
     public void add(String filePath) {
+        GitEvents.UpdateIndex event = new GitEvents.UpdateIndex();
+        event.begin();
+        event.path = filePath;
         try{
-            File file = new File(filePath);
-            if (!file.exists()){
-                throw new IOException("File not found " + filePath);
+            // the common case of re-adding an unchanged file never loads the whole index
+            StatData stat = checkFile(filePath);
+            if (Index.upToDateHash(Index.relativePath(filePath), stat) != null) {
+                System.out.println("staged " + filePath);
+                return;
             }
-            if (file.isDirectory()){
-                throw new IOException("Cannot add a directory directly: " + filePath);
+            Index index = Index.load();
+            StagedFile staged = stageFile(index, filePath);
+            if (index.put(staged.path, staged.hash, staged.stat)) {
+                event.objects = 1;
             }
-            String hash = Git.hashFile(filePath);
-            Git.createBlobFiles(filePath);
-            Git.updateIndex(hash, filePath);
+            index.flush();
+            FILES_STAGED.increment();
             System.out.println("staged " + filePath);
         }
         catch (Exception e) {
             System.out.println("Error adding file: " + e.getMessage());
         }
+        finally {
+            event.commit();
+        }
+
+    }
+
+    /**
+     * Stages many files at once.
+     * Files are hashed and stored in parallel (see setParallelism), but the index is only
+     * loaded and written once for the whole batch, with entries merged in path order.
+     * A file that can't be staged doesn't stop the rest of the batch.
+     * @param paths The files to be staged.
+     * @return The paths that could not be staged and why, in the order they were given.
+     * @throws IOException If the index itself can't be read or written.
+     */
+    public Map<Path, IOException> addAll(Collection<Path> paths) throws IOException {
+        List<Path> ordered = new ArrayList<>(paths);
+        List<ForkJoinTask<StagedFile>> tasks = new ArrayList<>();
+        GitEvents.UpdateIndex event = new GitEvents.UpdateIndex();
+        event.begin();
+        event.path = ordered.size() + " files";
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // the pool only reads the index, all the writes to it happen below on this thread
+            Index index = Index.load();
+            // blobs get hashed and written across the pool, two files with the same content
+            // are fine because ObjectStore renames each temp file into place atomically
+            for (Path path : ordered) {
+                tasks.add(pool.submit(() -> stageFile(index, path.toString())));
+            }
+            // merge back in path order so the result never depends on which thread finished first
+            Map<Path, IOException> failures = new LinkedHashMap<>();
+            TreeMap<String, StagedFile> staged = new TreeMap<>();
+            for (int i = 0; i < ordered.size(); i++) {
+                Path path = ordered.get(i);
+                try {
+                    StagedFile file = tasks.get(i).get();
+                    staged.put(file.path, file);
+                } catch (ExecutionException e) {
+                    failures.put(path, asIOException(e));
+                }
+            }
+            for (StagedFile file : staged.values()) {
+                if (index.put(file.path, file.hash, file.stat)) {
+                    event.objects++;
+                }
+            }
+            index.flush();
+            FILES_STAGED.add(staged.size());
+            System.out.println("staged " + staged.size() + " files");
+            return failures;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while staging files");
+        } finally {
+            pool.shutdownNow();
+            event.commit();
+        }
+    }
+
+    /**
+     * Sets how many threads bulk operations like addAll use.
+     * Defaults to the git.threads system property, or the number of cores.
+     * @param threads The number of worker threads, at least 1.
+     */
+    public void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread, got " + threads);
+        }
+        this.parallelism = threads;
+    }
+
+    /**
+     * Stages every file under a directory, going into subdirectories.
+     * The repo's own git/ directory is skipped.
+     * @param dir The directory to be staged.
+     * @return The paths that could not be staged and why.
+     * @throws IOException If the directory can't be walked or the index can't be written.
+     */
+    public Map<Path, IOException> addTree(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            throw new IOException("Not a directory: " + dir);
+        }
+        List<Path> files = new ArrayList<>();
+        for (DirectoryScanner.Entry entry : DirectoryScanner.ofWorkingDirectory().files(dir)) {
+            files.add(entry.path);
+        }
+        return addAll(files);
+    }
+
+    // fork/join wraps checked exceptions in RuntimeExceptions, and wraps those again when
+    // a task fails on another thread, so dig the real one out from anywhere in the chain
+    static IOException asIOException(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return (IOException) cause;
+            }
+        }
+        return new IOException(t.getCause() != null ? t.getCause() : t);
+    }
+
+    private static class StagedFile {
+        final String path;
+        final ObjectId hash;
+        final StatData stat;
+
+        StagedFile(String path, ObjectId hash, StatData stat) {
+            this.path = path;
+            this.hash = hash;
+            this.stat = stat;
+        }
+    }
+
+    // makes sure filePath is a file that can be staged and returns its stat data
+    private static StatData checkFile(String filePath) throws IOException {
+        File file = new File(filePath);
+        if (!file.exists()){
+            throw new IOException("File not found " + filePath);
+        }
+        if (file.isDirectory()){
+            throw new IOException("Cannot add a directory directly: " + filePath);
+        }
+        return StatData.read(file.toPath());
+    }
+
+    // checks the path and stores its blob, unless the index already has it with the same
+    // stat data, in which case the content can't have changed and hashing is skipped.
+    // the caller decides what to do with the index
+    private static StagedFile stageFile(Index index, String filePath) throws IOException {
+        StatData stat = checkFile(filePath);
+        String path = Index.relativePath(filePath);
+        if (index.isUpToDate(path, stat)) {
+            return new StagedFile(path, index.getId(path), stat);
+        }
+        return new StagedFile(path, ObjectId.fromHex(Git.createBlobFiles(filePath)), stat);
+    }
+
+    /**
+     * Packs every loose object into pack files under git/objects/pack
+     * and removes the loose copies. Reads keep working the same way afterwards.
+     */
+    public void pack() {
+        try {
+            List<String> packs = Pack.packLooseObjects();
+            System.out.println("packed objects into " + packs);
+        }
+        catch (Exception e) {
+            System.out.println("Error packing objects: " + e.getMessage());
+        }
+    }
 
+    /**
+     * Prints every metric collected so far (objects written, bytes hashed, index write times,
+     * checkout times, cache hits...) in the Prometheus text format.
+     */
+    public void metrics() {
+        Metrics.print(System.out);
+    }
+
+    /**
+     * Writes the same snapshot as metrics() to a file, e.g. for a node_exporter textfile collector.
+     * @param file Where to write it, replaced atomically.
+     */
+    public void metrics(Path file) {
+        try {
+            Metrics.writeTo(file);
+        }
+        catch (Exception e) {
+            System.out.println("Error writing metrics: " + e.getMessage());
+        }
     }
 
     /**
@@ -70,117 +275,462 @@ public class GitWrapper {
      * @return The SHA1 hash of the new commit.
      */
     //talias
-    // public String commit(String author, String message) {
-    //     try {
-    //         String rootTreeHash = Git.workToTree();
-    //         if (rootTreeHash == null || rootTreeHash.isEmpty()) {
-    //             System.out.println("Index is empty. Nothing to commit");
-    //             return "";
-    //         }
-    //         String commitHash = Git.createCommit(author, message, rootTreeHash);
-    //         return commitHash;
-    //     } catch (Exception e) {
-    //         System.out.println("error creating commit");
-    //         return "";
-    //     }
-    // }
+    public String commit(String author, String message) {
+        try {
+            // loaded once, the empty check and the tree building share it
+            Index index = Index.load();
+            if (index.size() == 0) {
+                System.out.println("Index is empty. Nothing to commit");
+                return "";
+            }
+            String rootTreeHash = Git.workToTree(index);
+            String commitHash = Git.createCommit(author, message, rootTreeHash);
+            System.out.println("committed " + commitHash);
+            return commitHash;
+        } catch (Exception e) {
+            System.out.println("error creating commit");
+            return "";
+        }
+    }
+
+    /**
+     * Prints the history reachable from HEAD, newest first, one "hash summary" line per commit.
+     * The walk runs on the commit-graph, only the summaries are read from the commit objects.
+     */
+    public void log() {
+        try {
+            String head = Git.readHead();
+            if (head.isEmpty()) {
+                System.out.println("no commits yet");
+                return;
+            }
+            for (CommitGraph.Commit commit : CommitGraph.open().log(ObjectId.fromHex(head))) {
+                // first line only, like a oneline log
+                String summary = Git.commitSummary(commit.id.toHex());
+                int newline = summary.indexOf('\n');
+                System.out.println(commit.id + " " + (newline < 0 ? summary : summary.substring(0, newline)));
+            }
+        } catch (Exception e) {
+            System.out.println("error reading log");
+        }
+    }
+
+    /**
+     * Finds the best common ancestor of two commits.
+     * @return Its hash, or "" if the commits share no history.
+     */
+    public String mergeBase(String firstCommit, String secondCommit) {
+        try {
+            ObjectId base = CommitGraph.open().mergeBase(ObjectId.fromHex(firstCommit), ObjectId.fromHex(secondCommit));
+            return base == null ? "" : base.toHex();
+        } catch (Exception e) {
+            System.out.println("error finding merge base");
+            return "";
+        }
+    }
+
+    /**
+     * Checks whether one commit is in the history of another (a commit counts as its own ancestor).
+     */
+    public boolean isAncestor(String ancestor, String descendant) {
+        try {
+            return CommitGraph.open().isAncestor(ObjectId.fromHex(ancestor), ObjectId.fromHex(descendant));
+        } catch (Exception e) {
+            System.out.println("error checking ancestry");
+            return false;
+        }
+    }
+
+    /**
+     * Shows what's changed: paths staged since HEAD, tracked files changed or deleted since
+     * they were staged, and files that aren't tracked at all.
+     * Subdirectories are scanned in parallel, and only files whose stat data changed get hashed.
+     * @return The three lists, each sorted by path, or null if the status couldn't be read.
+     */
+    public Status status() {
+        long start = System.nanoTime();
+        try {
+            Status status = Status.compute(parallelism);
+            printSection("Changes to be committed:", status.staged);
+            printSection("Changes not staged for commit:", status.unstaged);
+            printSection("Untracked files:", status.untracked);
+            if (status.isClean()) {
+                System.out.println("nothing to commit, working tree clean");
+            }
+            return status;
+        } catch (Exception e) {
+            System.out.println("error reading status");
+            return null;
+        } finally {
+            STATUS_TIME.recordSince(start);
+        }
+    }
+
+    private static void printSection(String title, List<String> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        System.out.println(title);
+        for (String path : paths) {
+            System.out.println("    " + path);
+        }
+    }
 
      /**
      * EXTRA CREDIT:
      * Checks out a specific commit given its hash.
-     * This method should read the HEAD file to determine the "checked out" commit.
-     * Then it should update the working directory to match the
-     * state of the repository at that commit by tracing through the root tree and
-     * all its children.
+     * This method reads the HEAD file to determine the "checked out" commit,
+     * diffs its root tree against the target commit's root tree, and only touches
+     * the files that were added, removed or modified in between. Subtrees with the same
+     * hash are skipped without being read, and untracked files are left alone.
+     * If nothing is checked out yet, the whole target tree is written out.
+     * The index is updated to match: removed paths leave it, written files are staged with
+     * their new stat data, and anything else staged is kept.
+     * Checkout refuses to start if it would overwrite an untracked file.
+     * HEAD points at the target commit afterwards.
      *
      * @param commitHash The SHA1 hash of the commit to check out.
      */
      public void checkout(String commitHash) {
+        long start = System.nanoTime();
+        GitEvents.Checkout event = new GitEvents.Checkout();
+        event.begin();
+        event.path = commitHash;
         try{
-            File commitFile = new File("git/objects", commitHash);
-            if (!commitFile.exists()){
+            if (!ObjectStore.exists(commitHash)){
                 throw new IOException("commit not found");
             }
-
-        
-            List<String> lines = Files.readAllLines(commitFile.toPath());
-            String treeHash = null;
-            // getting the tree hash from commit
-            for (String line: lines){
-                if (line.startsWith("tree:")){
-                    treeHash = line.substring(5).trim();
-                    break;
+            ObjectId treeHash = ObjectId.fromHex(Tree.ofCommit(commitHash));
+            String headCommit = Git.readHead();
+            Index index = Index.load();
+            File wd = new File(".");
+            // work out everything first, so nothing is touched if checkout has to refuse
+            CheckoutPlan plan = new CheckoutPlan();
+            boolean incremental = !headCommit.isEmpty() && ObjectStore.exists(headCommit);
+            if (incremental) {
+                updateTree(ObjectId.fromHex(Tree.ofCommit(headCommit)), treeHash, wd, "", plan);
+            } else {
+                collectTree(treeHash, wd, "", plan);
+            }
+            List<String> conflicts = plan.untrackedConflicts(index);
+            if (!conflicts.isEmpty()) {
+                System.out.println("checkout would overwrite untracked files:");
+                for (String path : conflicts) {
+                    System.out.println("    " + path);
                 }
+                System.out.println("move or remove them first, nothing was checked out");
+                return;
             }
-
-            if (treeHash == null){
-                throw new IOException("no tree reference found in commit");
+            if (!incremental) {
+                // nothing to diff against, so the index becomes exactly the target tree
+                for (String path : new ArrayList<>(index.entries().keySet())) {
+                    index.remove(path);
+                }
+            }
+            for (Removal removal : plan.removals) {
+                removeTracked(removal.entry, removal.file, removal.path, index);
+            }
+            plan.makeDirs();
+            event.objects = plan.writes.size();
+            event.bytes = writeBlobs(plan.writes, parallelism);
+            for (PendingBlob write : plan.writes) {
+                StatData stat = write.file.isFile() ? StatData.read(write.file.toPath()) : null;
+                index.put(write.path, write.hash, stat);
             }
+            index.flush();
+            Git.writeHead(commitHash);
+        }
+        catch (Exception e) {
+            System.out.println("error during checkout");
+        }
+        finally {
+            event.commit();
+            CHECKOUT_TIME.recordSince(start);
+        }
 
-            // want to clear working directory except git/
-            File wd = new File(".");
-            for (File f: wd.listFiles()){
-                if (f.getName().equals("git")){
+    }
+
+    // what a checkout is going to do, worked out before anything on disk changes.
+    // it's applied in this order: removals, then directories, then blobs
+    private static class CheckoutPlan {
+        final List<Removal> removals = new ArrayList<>();
+        final List<File> dirs = new ArrayList<>();
+        final List<PendingBlob> writes = new ArrayList<>();
+
+        // paths that are on disk, aren't staged, and would get written over.
+        // a tracked directory that becomes a file is fine as long as its removal empties it
+        List<String> untrackedConflicts(Index index) throws IOException {
+            Map<String, Removal> removedTrees = new HashMap<>();
+            for (Removal removal : removals) {
+                if (removal.entry.isTree()) {
+                    removedTrees.put(removal.path, removal);
+                }
+            }
+            List<String> conflicts = new ArrayList<>();
+            for (PendingBlob write : writes) {
+                if (!write.file.exists() || index.getId(write.path) != null) {
                     continue;
                 }
-                deleteRecursively(f);
+                Removal removed = removedTrees.get(write.path);
+                if (removed != null && write.file.isDirectory()) {
+                    leftBehind(removed.entry.id, write.file, write.path, conflicts);
+                } else {
+                    conflicts.add(write.path);
+                }
             }
-
-            restoreTree(treeHash, wd);
+            for (File dir : dirs) {
+                if (dir.isFile() && index.getId(Index.relativePath(dir.getPath())) == null) {
+                    conflicts.add(Index.relativePath(dir.getPath()));
+                }
+            }
+            return conflicts;
         }
-        catch (Exception e) {
-            System.out.println("error during checkout");
+
+        // whatever in dir the tree doesn't have, so removing the tree won't delete it
+        private static void leftBehind(ObjectId tree, File dir, String dirPath, List<String> conflicts) throws IOException {
+            Map<String, Tree.Entry> tracked = new HashMap<>();
+            for (Tree.Entry entry : Tree.read(tree)) {
+                tracked.put(entry.name, entry);
+            }
+            String[] names = dir.list();
+            if (names == null) {
+                return;
+            }
+            Arrays.sort(names);
+            for (String name : names) {
+                File file = new File(dir, name);
+                String path = childPath(dirPath, name);
+                Tree.Entry entry = tracked.get(name);
+                boolean isDir = Files.isDirectory(file.toPath(), LinkOption.NOFOLLOW_LINKS);
+                if (entry == null || entry.isTree() != isDir) {
+                    conflicts.add(path);
+                } else if (isDir) {
+                    leftBehind(entry.id, file, path, conflicts);
+                }
+            }
         }
 
+        // so the blob writers never race on mkdirs
+        void makeDirs() {
+            for (File dir : dirs) {
+                dir.mkdirs();
+            }
+        }
     }
 
+    private static class Removal {
+        final Tree.Entry entry;
+        final File file;
+        final String path;
 
+        Removal(Tree.Entry entry, File file, String path) {
+            this.entry = entry;
+            this.file = file;
+            this.path = path;
+        }
+    }
+
+    // plans how dir goes from oldTree to newTree, only touching what differs
+    private static void updateTree(ObjectId oldTree, ObjectId newTree, File dir, String dirPath, CheckoutPlan plan) throws IOException {
+        if (oldTree.equals(newTree)) {
+            return;
+        }
+        Map<String, Tree.Entry> oldEntries = new LinkedHashMap<>();
+        for (Tree.Entry entry : Tree.read(oldTree)) {
+            oldEntries.put(entry.name, entry);
+        }
+        for (Tree.Entry entry : Tree.read(newTree)) {
+            Tree.Entry old = oldEntries.remove(entry.name);
+            File target = new File(dir, entry.name);
+            String path = childPath(dirPath, entry.name);
+            if (old != null && old.type.equals(entry.type)) {
+                if (old.id.equals(entry.id)) {
+                    continue;
+                }
+                if (entry.isTree()) {
+                    // it may have been deleted by hand since
+                    plan.dirs.add(target);
+                    updateTree(old.id, entry.id, target, path, plan);
+                    continue;
+                }
+            } else if (old != null) {
+                plan.removals.add(new Removal(old, target, path));
+            }
+            if (entry.isTree()) {
+                plan.dirs.add(target);
+                collectTree(entry.id, target, path, plan);
+            } else {
+                plan.writes.add(new PendingBlob(entry.id, target, path));
+            }
+        }
+        // whatever is left was in the old tree but not the new one
+        for (Tree.Entry old : oldEntries.values()) {
+            plan.removals.add(new Removal(old, new File(dir, old.name), childPath(dirPath, old.name)));
+        }
+    }
 
-    private void deleteRecursively(File f) throws IOException {
-        if (f.isDirectory()) {
-            for (File ch : f.listFiles()) {
-                deleteRecursively(ch);
+    // deletes what the old tree put there and unstages it,
+    // a directory only goes once nothing untracked is left in it
+    private static void removeTracked(Tree.Entry entry, File target, String path, Index index) throws IOException {
+        if (entry.isTree()) {
+            for (Tree.Entry child : Tree.read(entry.id)) {
+                removeTracked(child, new File(target, child.name), childPath(path, child.name), index);
+            }
+            String[] left = target.list();
+            if (left != null && left.length == 0) {
+                Files.deleteIfExists(target.toPath());
             }
+        } else {
+            Files.deleteIfExists(target.toPath());
+            index.remove(path);
         }
-        Files.deleteIfExists(f.toPath());
+    }
+
+    private static String childPath(String dirPath, String name) {
+        return dirPath.isEmpty() ? name : dirPath + "/" + name;
     }
 
     // turns blobs/tree objects into files and folders
     public static void restoreTree(String treeHash, File parentDir) throws IOException {
-        File treeFile = new File("git/objects", treeHash);
-        if (!treeFile.exists()) {
+        GitEvents.RestoreTree event = new GitEvents.RestoreTree();
+        event.begin();
+        event.path = parentDir.getPath();
+        try {
+            CheckoutPlan plan = new CheckoutPlan();
+            collectTree(ObjectId.fromHex(treeHash), parentDir, "", plan);
+            plan.makeDirs();
+            event.objects = plan.writes.size();
+            event.bytes = writeBlobs(plan.writes, Integer.getInteger("git.threads", Runtime.getRuntime().availableProcessors()));
+        } finally {
+            event.commit();
+        }
+    }
+
+    // plans every folder and blob under the tree
+    private static void collectTree(ObjectId treeHash, File parentDir, String dirPath, CheckoutPlan plan) throws IOException {
+        if (!ObjectStore.exists(treeHash.toHex())) {
             System.out.println("Tree object not found: " + treeHash);
             return;
         }
 
-        // Read every line of the tree file
-        List<String> lines = Files.readAllLines(treeFile.toPath());
-        for (String line : lines) {
-            String[] parts = line.split(" ");
-            if (parts.length < 3) continue;
-
-            String type = parts[0];   // blob or tree
-            String hash = parts[1];
-            String name = parts[2];
-
-            if (type.equals("blob")) {
-                // Read the blob file and recreate the original file
-                File blobFile = new File("git/objects", hash);
-                if (blobFile.exists()) {
-                    String content = Files.readString(blobFile.toPath());
-                    File restoredFile = new File(parentDir, name);
-                    Files.writeString(restoredFile.toPath(), content);
-                    System.out.println("Restored file: " + restoredFile.getPath());
-                } else {
-                    System.out.println("Missing blob object: " + hash);
+        for (Tree.Entry entry : Tree.read(treeHash)) {
+            String path = childPath(dirPath, entry.name);
+            if (entry.type.equals("blob")) {
+                plan.writes.add(new PendingBlob(entry.id, new File(parentDir, entry.name), path));
+            } else if (entry.isTree()) {
+                File subDir = new File(parentDir, entry.name);
+                plan.dirs.add(subDir);
+                collectTree(entry.id, subDir, path, plan);
+            }
+        }
+    }
+
+    /**
+     * Writes the queued blobs from a pool of at most threads workers.
+     * All their directories already exist, so the workers never race on mkdirs.
+     * Results are reported in queue order once everything is done.
+     * @return How many bytes were written.
+     */
+    private static long writeBlobs(List<PendingBlob> writes, int threads) throws IOException {
+        if (writes.isEmpty()) {
+            return 0;
+        }
+        List<ForkJoinTask<Long>> tasks = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(threads, writes.size())));
+        try {
+            for (PendingBlob write : writes) {
+                tasks.add(pool.submit(() -> restoreBlob(write.hash, write.file)));
+            }
+            IOException failure = null;
+            long written = 0;
+            for (int i = 0; i < writes.size(); i++) {
+                PendingBlob write = writes.get(i);
+                try {
+                    long bytes = tasks.get(i).get();
+                    if (bytes >= 0) {
+                        written += bytes;
+                        System.out.println("Restored file: " + write.file.getPath());
+                    } else {
+                        System.out.println("Missing blob object: " + write.hash);
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = asIOException(e);
+                    }
+                }
+            }
+            CHECKOUT_FILES.add(writes.size());
+            CHECKOUT_BYTES.add(written);
+            if (failure != null) {
+                throw failure;
+            }
+            return written;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while restoring files");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Inflate the blob straight into the original file through its channel, the bytes are never decoded
+    // (the object is compressed so there's no file to transferTo from, the inflater is the source instead)
+    // small blobs go through ObjectCache.BLOBS since the same ones tend to show up in every commit
+    // returns the number of bytes written, or -1 if the blob is missing
+    private static long restoreBlob(ObjectId id, File restoredFile) throws IOException {
+        byte[] cached = ObjectCache.BLOBS.get(id);
+        // the object store works on hex names, this is where the id turns back into one
+        String hash = id.toHex();
+        if (cached == null && !ObjectStore.exists(hash)) {
+            return -1;
+        }
+        try (FileChannel out = FileChannel.open(restoredFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (cached != null) {
+                writeFully(out, cached);
+                return cached.length;
+            }
+            try (ObjectStore.ObjectInput in = ObjectStore.open(hash)) {
+                if (in.size <= ObjectCache.MAX_BLOB_SIZE) {
+                    byte[] content = in.readAllBytes();
+                    if (content.length != in.size) {
+                        throw new IOException("Blob " + hash + " is " + in.size + " bytes but " + content.length + " came out");
+                    }
+                    ObjectCache.BLOBS.put(id, content);
+                    writeFully(out, content);
+                    return content.length;
+                }
+                ReadableByteChannel source = Channels.newChannel(in);
+                long position = 0;
+                long copied;
+                while ((copied = out.transferFrom(source, position, TRANSFER_CHUNK)) > 0) {
+                    position += copied;
                 }
-            } else if (type.equals("tree")) {
-                File subDir = new File(parentDir, name);
-                if (!subDir.exists()) {
-                    subDir.mkdirs();
+                if (position != in.size) {
+                    throw new IOException("Blob " + hash + " is " + in.size + " bytes but only " + position + " came out");
                 }
-                restoreTree(hash, subDir);
+                return position;
             }
         }
     }
+
+    private static void writeFully(FileChannel out, byte[] content) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static class PendingBlob {
+        final ObjectId hash;
+        final File file;
+        // relative to where the checkout started, using '/' like the index
+        final String path;
+
+        PendingBlob(ObjectId hash, File file, String path) {
+            this.hash = hash;
+            this.file = file;
+            this.path = path;
+        }
+    }
 }
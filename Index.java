@@ -0,0 +1,392 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The staging area, loaded once and kept in memory keyed by path.
+ * On disk it is still one "hash path" line per file, but always sorted by path.
+ * Changes only hit the disk when flush() is called, so a whole operation costs one write.
+ *
+ * Stat data for each entry lives next to it in git/index.stat, one
+ * "size mtime ctime inode hash path" line per entry. A stat line only counts if its hash
+ * still matches the index, so a stale or missing stat file just means files get rehashed.
+ *
+ * The tree hash of every directory that hasn't changed since the last workToTree is cached
+ * in git/index.tree (a cache-tree). Staging a path only throws away the cached hashes of
+ * that path's parent directories, so the next tree build reuses everything else.
+ * The cache-tree starts with the SHA-1 of the index file it was made for, and is ignored
+ * if the index was changed by anything else in between.
+ */
+public class Index {
+    public static final String INDEX_FILE = "git/index";
+    public static final String STAT_FILE = "git/index.stat";
+    public static final String TREE_FILE = "git/index.tree";
+    private static final int HASH_LENGTH = ObjectId.HEX_LENGTH;
+    // stat data a racy entry gets written with so it can never match a real file
+    private static final StatData SMUDGED = new StatData(-1, 0, 0, 0);
+
+    private static final Metrics.Histogram WRITE_TIME = Metrics.histogram("git_index_write_seconds",
+            "Time to write the index and its sidecar files, when anything changed.");
+
+    /**
+     * The order paths are kept in: by code point, which is the same as comparing the UTF-8
+     * bytes on disk, so MappedIndex can binary search the file directly.
+     */
+    public static final Comparator<String> PATH_ORDER = (first, second) -> {
+        int i = 0;
+        int j = 0;
+        while (i < first.length() && j < second.length()) {
+            int a = first.codePointAt(i);
+            int b = second.codePointAt(j);
+            if (a != b) {
+                return Integer.compare(a, b);
+            }
+            i += Character.charCount(a);
+            j += Character.charCount(b);
+        }
+        return Boolean.compare(i < first.length(), j < second.length());
+    };
+
+    // hashes are kept as ObjectIds in memory, they're only hex in the files
+    private final TreeMap<String, ObjectId> entries = new TreeMap<>(PATH_ORDER);
+    private final Map<String, StatData> stats = new HashMap<>();
+    // when the stat file was last written, anything modified at or after this is racy
+    private long statTimestamp = Long.MIN_VALUE;
+    // directory path ("" for the root) -> hash of its tree when nothing under it has changed
+    private final Map<String, ObjectId> cachedTrees = new HashMap<>();
+    // SHA-1 of git/index as it is on disk, ties the cache-tree to this exact index
+    private String indexDigest;
+    private boolean dirty;
+    private boolean statsDirty;
+    private boolean treesDirty;
+
+    /**
+     * Reads git/index into memory. A missing index just means nothing is staged yet.
+     */
+    public static Index load() throws IOException {
+        Index index = new Index();
+        File indexFile = new File(INDEX_FILE);
+        MessageDigest digest = Git.newDigest();
+        if (!indexFile.exists()) {
+            index.indexDigest = Git.makeItHex(digest.digest());
+            return index;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new DigestInputStream(Files.newInputStream(indexFile.toPath()), digest), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.length() < HASH_LENGTH + 2 || line.charAt(HASH_LENGTH) != ' ') {
+                    throw new IOException("Bad index line: " + line);
+                }
+                try {
+                    index.entries.put(line.substring(HASH_LENGTH + 1), ObjectId.fromHex(line, 0));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Bad index line: " + line);
+                }
+            }
+        }
+        index.indexDigest = Git.makeItHex(digest.digest());
+        index.loadStats();
+        index.loadTrees();
+        return index;
+    }
+
+    private void loadTrees() throws IOException {
+        File treeFile = new File(TREE_FILE);
+        if (!treeFile.exists()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(treeFile.toPath(), StandardCharsets.UTF_8)) {
+            if (!indexDigest.equals(reader.readLine())) {
+                // made for some other index, none of it can be trusted
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > HASH_LENGTH && line.charAt(HASH_LENGTH) == ' ' && ObjectId.isHex(line.substring(0, HASH_LENGTH))) {
+                    cachedTrees.put(line.substring(HASH_LENGTH + 1), ObjectId.fromHex(line, 0));
+                }
+            }
+        }
+    }
+
+    private void loadStats() throws IOException {
+        File statFile = new File(STAT_FILE);
+        if (!statFile.exists()) {
+            return;
+        }
+        statTimestamp = Files.getLastModifiedTime(statFile.toPath()).to(TimeUnit.NANOSECONDS);
+        try (BufferedReader reader = Files.newBufferedReader(statFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", 6);
+                if (parts.length < 6) {
+                    continue;
+                }
+                if (ObjectId.fromHex(parts[4]).equals(entries.get(parts[5]))) {
+                    stats.put(parts[5], StatData.parse(parts[0], parts[1], parts[2], parts[3]));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // it's only a cache, throw it away and rehash
+            stats.clear();
+        }
+    }
+
+    /**
+     * Turns any path into the repo relative form the index uses.
+     */
+    public static String relativePath(String fileName) {
+        Path relativeRootDirPath = Paths.get(System.getProperty("user.dir")).toAbsolutePath(); // used stackoverlow to get pwd in java
+        Path filePath = Paths.get(fileName).toAbsolutePath().normalize();
+        return relativeRootDirPath.relativize(filePath).toString(); //used baeldung for relativize
+    }
+
+    /**
+     * The staged hash for path as hex, or null if it isn't staged.
+     */
+    public String get(String path) {
+        ObjectId id = entries.get(path);
+        return id == null ? null : id.toHex();
+    }
+
+    public ObjectId getId(String path) {
+        return entries.get(path);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Stages hash for path without any stat data, so the next add will hash it again.
+     * @return true if the index changed, false if that exact entry was already there.
+     */
+    public boolean put(String path, String hash) {
+        return put(path, ObjectId.fromHex(hash), null);
+    }
+
+    /**
+     * Stages hash for path along with the stat data the file had when it was hashed.
+     * @return true if the index changed, false if that exact entry was already there.
+     */
+    public boolean put(String path, ObjectId hash, StatData stat) {
+        ObjectId old = entries.put(path, hash);
+        StatData oldStat = stat == null ? stats.remove(path) : stats.put(path, stat);
+        if (!Objects.equals(stat, oldStat)) {
+            statsDirty = true;
+        }
+        if (hash.equals(old)) {
+            return false;
+        }
+        dirty = true;
+        invalidateTrees(path);
+        return true;
+    }
+
+    public boolean remove(String path) {
+        if (stats.remove(path) != null) {
+            statsDirty = true;
+        }
+        if (entries.remove(path) == null) {
+            return false;
+        }
+        dirty = true;
+        invalidateTrees(path);
+        return true;
+    }
+
+    // every directory above path now has different contents
+    private void invalidateTrees(String path) {
+        int slash = path.length();
+        while ((slash = path.lastIndexOf('/', slash - 1)) != -1) {
+            if (cachedTrees.remove(path.substring(0, slash)) != null) {
+                treesDirty = true;
+            }
+        }
+        if (cachedTrees.remove("") != null) {
+            treesDirty = true;
+        }
+    }
+
+    /**
+     * The tree hash last built for a directory, or null if something under it changed since.
+     * @param dirPath The directory relative to the repo root, "" for the root.
+     */
+    public ObjectId getCachedTree(String dirPath) {
+        return cachedTrees.get(dirPath);
+    }
+
+    public void putCachedTree(String dirPath, ObjectId hash) {
+        if (!hash.equals(cachedTrees.put(dirPath, hash))) {
+            treesDirty = true;
+        }
+    }
+
+    public StatData getStat(String path) {
+        return stats.get(path);
+    }
+
+    /**
+     * True if path is staged and the file still has the stat data it was staged with,
+     * meaning its content can't have changed and hashing it again can be skipped.
+     * A file modified at or after the last index write is racy: it could have changed again
+     * within the same timestamp tick, so it never counts as up to date.
+     */
+    public boolean isUpToDate(String path, StatData current) {
+        return isUpToDate(stats.get(path), current, statTimestamp);
+    }
+
+    private static boolean isUpToDate(StatData stat, StatData current, long statTimestamp) {
+        return stat != null && stat.equals(current) && current.mtime < statTimestamp;
+    }
+
+    /**
+     * Same as isUpToDate, but straight off the memory-mapped files with two binary searches,
+     * without loading the index. Good for checking one file.
+     * @return The staged hash if path is staged and unchanged, otherwise null.
+     */
+    public static String upToDateHash(String path, StatData current) throws IOException {
+        String statLine = MappedIndex.openStats().findLine(path);
+        if (statLine == null) {
+            return null;
+        }
+        String[] parts = statLine.split(" ", 6);
+        String hash = MappedIndex.open().lookupHash(path);
+        if (!parts[4].equals(hash)) {
+            return null;
+        }
+        long statTimestamp = Files.getLastModifiedTime(Paths.get(STAT_FILE)).to(TimeUnit.NANOSECONDS);
+        try {
+            StatData stat = StatData.parse(parts[0], parts[1], parts[2], parts[3]);
+            return isUpToDate(stat, current, statTimestamp) ? hash : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * All entries sorted by path, path -> hash.
+     */
+    public SortedMap<String, ObjectId> entries() {
+        return Collections.unmodifiableSortedMap(entries);
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Writes the index back out if anything changed. The new file is renamed into place
+     * so a crash halfway through never leaves a half written index.
+     * If only stat data or cached trees changed, only those files are rewritten.
+     */
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        boolean written = dirty || statsDirty || treesDirty;
+        if (dirty) {
+            flushEntries();
+        }
+        if (dirty || statsDirty) {
+            flushStats();
+        }
+        if (dirty || treesDirty) {
+            flushTrees();
+        }
+        dirty = false;
+        if (written) {
+            WRITE_TIME.recordSince(start);
+        }
+    }
+
+    private void flushEntries() throws IOException {
+        Path indexPath = Paths.get(INDEX_FILE);
+        Path tempFile = AtomicFile.createTemp(indexPath.toAbsolutePath().getParent(), "index");
+        MessageDigest digest = Git.newDigest();
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+                new DigestOutputStream(Files.newOutputStream(tempFile), digest), StandardCharsets.UTF_8))) {
+            boolean first = true;
+            for (var entry : entries.entrySet()) {
+                if (!first) {
+                    bw.newLine();
+                }
+                bw.write(entry.getValue().toHex());
+                bw.write(' ');
+                bw.write(entry.getKey());
+                first = false;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        AtomicFile.replace(tempFile, indexPath);
+        indexDigest = Git.makeItHex(digest.digest());
+    }
+
+    private void flushTrees() throws IOException {
+        AtomicFile.write(Paths.get(TREE_FILE), tempFile -> {
+            try (BufferedWriter bw = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                bw.write(indexDigest);
+                bw.newLine();
+                for (var entry : new TreeMap<>(cachedTrees).entrySet()) {
+                    bw.write(entry.getValue().toHex());
+                    bw.write(' ');
+                    bw.write(entry.getKey());
+                    bw.newLine();
+                }
+            }
+        });
+        treesDirty = false;
+    }
+
+    private void flushStats() throws IOException {
+        Path statPath = Paths.get(STAT_FILE);
+        AtomicFile.write(statPath, tempFile -> {
+            // the temp file was just created, so its mtime is "now" as the file system sees it.
+            // anything modified at or after that could still change within the same tick without
+            // its mtime moving, so it gets smudged and rehashed next time (same trick real git uses)
+            long now = Files.getLastModifiedTime(tempFile).to(TimeUnit.NANOSECONDS);
+            try (BufferedWriter bw = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                for (var entry : entries.entrySet()) {
+                    StatData stat = stats.get(entry.getKey());
+                    if (stat == null) {
+                        continue;
+                    }
+                    if (stat.mtime >= now) {
+                        stat = SMUDGED;
+                        stats.put(entry.getKey(), stat);
+                    }
+                    bw.write(stat.toString());
+                    bw.write(' ');
+                    bw.write(entry.getValue().toHex());
+                    bw.write(' ');
+                    bw.write(entry.getKey());
+                    bw.newLine();
+                }
+            }
+        });
+        statTimestamp = Files.getLastModifiedTime(statPath).to(TimeUnit.NANOSECONDS);
+        statsDirty = false;
+    }
+}
@@ -1,8 +1,14 @@
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 public class LastTester {
     private static final String GIT_DIR = "git";
@@ -16,6 +22,10 @@ public class LastTester {
     public static void main(String[] args) {
         //testInitFullWorkflow();
         testAddWorkflow();
+        testPackWorkflow();
+        testCheckoutWorkflow();
+        testHistoryWorkflow();
+        testStatusWorkflow();
         //testTreeWorkflow();
     }
 
@@ -262,7 +272,8 @@ public class LastTester {
      * Recursively delete a file or directory
      */
     private static void deleteRecursively(File file) throws IOException {
-        if (file.isDirectory()) {
+        // a link is deleted itself, never followed into whatever it points at
+        if (Files.isDirectory(file.toPath(), LinkOption.NOFOLLOW_LINKS)) {
             File[] children = file.listFiles();
             if (children != null) {
                 for (File child : children) {
@@ -306,6 +317,9 @@ public class LastTester {
         
         // Test 6: Creates blob
         testAddCreatesBlob(gitWrapper);
+
+        // Test 7: Directory with a symlink loop
+        testAddTreeSkipsSymlinks(gitWrapper);
         
         // Print add method test results
         System.out.println("\n=== Add Method Test Results ===");
@@ -464,11 +478,11 @@ public class LastTester {
                       expectedHash + " " + expectedPath + ", Got: " + indexLine);
             
             // Verify blob was created
-            File blobFile = new File("git/objects", expectedHash);
+            File blobFile = ObjectStore.objectFile(expectedHash);
             assertTest(blobFile.exists(), "Blob file should be created");
             
             // Verify blob content matches original file
-            String blobContent = Files.readString(blobFile.toPath());
+            String blobContent = ObjectStore.readString(expectedHash);
             assertTest(blobContent.equals(fileContent), 
                       "Blob content should match original file content");
             
@@ -530,13 +544,13 @@ public class LastTester {
                       "Index should contain new hash and path");
             
             // Verify old blob still exists (shouldn't be deleted)
-            File initialBlob = new File("git/objects", initialHash);
+            File initialBlob = ObjectStore.objectFile(initialHash);
             assertTest(initialBlob.exists(), "Initial blob should still exist");
             
             // Verify new blob exists with correct content
-            File modifiedBlob = new File("git/objects", modifiedHash);
+            File modifiedBlob = ObjectStore.objectFile(modifiedHash);
             assertTest(modifiedBlob.exists(), "New blob should be created");
-            String blobContent = Files.readString(modifiedBlob.toPath());
+            String blobContent = ObjectStore.readString(modifiedHash);
             assertTest(blobContent.equals(modifiedContent), 
                       "New blob content should match modified file content");
             
@@ -625,12 +639,12 @@ public class LastTester {
             String fileHash = Git.hashFile("testFile4.txt");
             
             // Verify blob exists
-            File blobFile = new File("git/objects", fileHash);
+            File blobFile = ObjectStore.objectFile(fileHash);
             assertTest(blobFile.exists(), "Blob file should exist");
             assertTest(blobFile.isFile(), "Blob should be a file");
             
             // Verify blob content exactly matches file content
-            String blobContent = Files.readString(blobFile.toPath());
+            String blobContent = ObjectStore.readString(fileHash);
             assertTest(blobContent.equals(fileContent), 
                       "Blob content should exactly match file content");
             
@@ -682,6 +696,52 @@ public class LastTester {
         System.out.println("✅ Blob creation test passed\n");
     }
     
+    /**
+     * Test that addTree stages the files in a directory and doesn't follow a link back up it
+     */
+    private static void testAddTreeSkipsSymlinks(GitWrapper gitWrapper) {
+        System.out.println("Test 7: Directory with a symlink loop");
+        GPTester.robustReset();
+        File testDir = new File("linkTest");
+
+        try {
+            Files.createDirectories(Paths.get("linkTest", "sub"));
+            Files.writeString(Paths.get("linkTest", "sub", "file.txt"), "in a looped directory");
+            if (!createLink(Paths.get("linkTest", "sub", "loop"), Paths.get(".."))) {
+                return;
+            }
+
+            Map<Path, IOException> failures = gitWrapper.addTree(Paths.get("linkTest"));
+            assertTest(failures.isEmpty(), "addTree should not fail on the link");
+            Index index = Index.load();
+            assertTest(index.get("linkTest/sub/file.txt") != null, "File next to the link should be staged");
+            assertTest(index.size() == 1, "Nothing should be staged through the link");
+        } catch (Exception e) {
+            failTest("Exception during symlink loop test: " + e.getMessage());
+        } finally {
+            try {
+                deleteRecursively(testDir);
+            } catch (IOException e) {
+                System.out.println("Warning: Could not clean up linkTest: " + e.getMessage());
+            }
+        }
+
+        System.out.println("✅ Symlink loop test passed\n");
+    }
+
+    /**
+     * Helper method to make a symbolic link, false (and the test skipped) where the file system can't
+     */
+    private static boolean createLink(Path link, Path target) {
+        try {
+            Files.createSymbolicLink(link, target);
+            return true;
+        } catch (UnsupportedOperationException | IOException e) {
+            System.out.println("Skipped, symbolic links are not supported here: " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * Comprehensive tester for the Git tree functionality
      */
@@ -745,11 +805,11 @@ public class LastTester {
                       "Should not return failure message for empty index");
             
             // Verify tree object exists
-            File treeFile = new File("git/objects", rootTreeHash);
+            File treeFile = ObjectStore.objectFile(rootTreeHash);
             assertTest(treeFile.exists(), "Root tree object should exist");
             
             // Verify tree content is empty string
-            String treeContent = Files.readString(treeFile.toPath());
+            String treeContent = ObjectStore.readString(rootTreeHash);
             assertTest(treeContent.isEmpty(), "Empty index should produce empty tree content");
             
         } catch (Exception e) {
@@ -784,11 +844,11 @@ public class LastTester {
             String rootTreeHash = Git.workToTree();
             
             // Verify tree object exists
-            File treeFile = new File("git/objects", rootTreeHash);
+            File treeFile = ObjectStore.objectFile(rootTreeHash);
             assertTest(treeFile.exists(), "Root tree object should exist");
             
             // Read and verify tree content
-            String treeContent = Files.readString(treeFile.toPath());
+            String treeContent = ObjectStore.readString(rootTreeHash);
             String[] lines = treeContent.split("\n");
             
             // Should have 3 lines (one per file)
@@ -844,11 +904,11 @@ public class LastTester {
             String rootTreeHash = Git.treeify("testDir");
             
             // Verify root tree exists
-            File rootTreeFile = new File("git/objects", rootTreeHash);
+            File rootTreeFile = ObjectStore.objectFile(rootTreeHash);
             assertTest(rootTreeFile.exists(), "Root tree object should exist");
             
             // Read root tree content
-            String rootTreeContent = Files.readString(rootTreeFile.toPath());
+            String rootTreeContent = ObjectStore.readString(rootTreeHash);
             String[] rootLines = rootTreeContent.split("\n");
             
             // Should have 2 entries: file1.txt and subDir
@@ -875,11 +935,11 @@ public class LastTester {
             
             // Verify subdirectory tree exists
             assertTest(subDirHash != null, "Subdirectory hash should not be null");
-            File subTreeFile = new File("git/objects", subDirHash);
+            File subTreeFile = ObjectStore.objectFile(subDirHash);
             assertTest(subTreeFile.exists(), "Subdirectory tree object should exist");
             
             // Verify subdirectory tree content
-            String subTreeContent = Files.readString(subTreeFile.toPath());
+            String subTreeContent = ObjectStore.readString(subDirHash);
             String[] subLines = subTreeContent.split("\n");
             
             assertTest(subLines.length == 1, "Subdirectory tree should have 1 entry");
@@ -932,11 +992,11 @@ public class LastTester {
                       "Should not return failure message");
             
             // Verify root tree object exists
-            File rootTreeFile = new File("git/objects", rootTreeHash);
+            File rootTreeFile = ObjectStore.objectFile(rootTreeHash);
             assertTest(rootTreeFile.exists(), "Root tree object should exist");
             
             // Verify tree content matches index
-            String treeContent = Files.readString(rootTreeFile.toPath());
+            String treeContent = ObjectStore.readString(rootTreeHash);
             String[] lines = treeContent.split("\n");
             
             assertTest(lines.length == 1, "Tree should have one entry for one file");
@@ -983,11 +1043,11 @@ public class LastTester {
             String rootTreeHash = Git.workToTree();
             
             // Verify tree object exists
-            File treeFile = new File("git/objects", rootTreeHash);
+            File treeFile = ObjectStore.objectFile(rootTreeHash);
             assertTest(treeFile.exists(), "Tree object should exist");
             
             // Read tree content
-            String treeContent = Files.readString(treeFile.toPath());
+            String treeContent = ObjectStore.readString(rootTreeHash);
             
             // Calculate expected hash
             java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-1");
@@ -1037,11 +1097,11 @@ public class LastTester {
             assertTest(rootTreeHash.matches("[0-9A-F]+"), "Root tree hash should be hex string");
             
             // Verify hash can be used to locate tree object
-            File treeFile = new File("git/objects", rootTreeHash);
+            File treeFile = ObjectStore.objectFile(rootTreeHash);
             assertTest(treeFile.exists(), "Root tree object should exist at hash location");
             
             // Verify tree contains both files
-            String treeContent = Files.readString(treeFile.toPath());
+            String treeContent = ObjectStore.readString(rootTreeHash);
             assertTest(treeContent.contains("outcomeTest1.txt"), "Tree should contain first file");
             assertTest(treeContent.contains("outcomeTest2.txt"), "Tree should contain second file");
             
@@ -1097,14 +1157,14 @@ public class LastTester {
                       "Modified index should produce different tree SHA");
             
             // Verify only the relevant tree changed
-            File originalTree = new File("git/objects", firstTreeHash);
-            File modifiedTree = new File("git/objects", modifiedTreeHash);
+            File originalTree = ObjectStore.objectFile(firstTreeHash);
+            File modifiedTree = ObjectStore.objectFile(modifiedTreeHash);
             
             assertTest(modifiedTree.exists(), "Modified tree should exist");
             
             // The original tree should still exist (blob for unchanged file)
-            String originalContent = Files.readString(originalTree.toPath());
-            String modifiedContent = Files.readString(modifiedTree.toPath());
+            String originalContent = ObjectStore.readString(firstTreeHash);
+            String modifiedContent = ObjectStore.readString(modifiedTreeHash);
             
             assertTest(modifiedContent.contains("determinism2.txt"), 
                       "Unchanged file should still be in tree");
@@ -1121,5 +1181,542 @@ public class LastTester {
         
         System.out.println("✅ Determinism test passed\n");
     }
-}
 
+    /**
+     * Helper method to run a GitWrapper call and return what it printed
+     */
+    private static String captureOutput(Runnable action) {
+        java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
+        java.io.PrintStream originalOut = System.out;
+        System.setOut(new java.io.PrintStream(baos));
+        try {
+            action.run();
+        } finally {
+            System.setOut(originalOut);
+        }
+        return baos.toString();
+    }
+
+    /**
+     * Tester for packing: deltas and whole objects have to read back exactly after pack()
+     */
+    public static void testPackWorkflow() {
+        System.out.println("\n=== Git Pack Workflow Tester ===\n");
+
+        cleanup();
+        GitWrapper gitWrapper = new GitWrapper();
+        try {
+            Git.makesEntireGitRepo();
+        } catch (IOException e) {
+            failTest("Failed to initialize git repository: " + e.getMessage());
+            return;
+        }
+
+        // Test 1: Delta round trip
+        testDeltaRoundTrip();
+
+        // Test 2: Pack and read back
+        testPackRoundTrip(gitWrapper);
+
+        System.out.println("\n=== Pack Workflow Test Results ===");
+        System.out.println("Pack workflow tests completed. Check individual test outputs above.");
+        cleanup();
+    }
+
+    /**
+     * Test that a delta rebuilds its target, with and without a reused base table
+     */
+    private static void testDeltaRoundTrip() {
+        System.out.println("Test 1: Delta round trip");
+
+        try {
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 300; i++) {
+                content.append("setting").append(i).append(" = ").append(i * 7919 % 1000).append('\n');
+            }
+            byte[] base = content.toString().getBytes();
+            content.insert(1000, "an inserted line\n").replace(3000, 3010, "changed!!!");
+            byte[] target = content.toString().getBytes();
+
+            byte[] delta = Delta.create(base, target);
+            assertTest(Arrays.equals(Delta.apply(base, delta), target),
+                      "Applying a delta should rebuild the target exactly");
+            assertTest(delta.length < target.length / 4,
+                      "A delta between two close versions should be much smaller than the file");
+            Delta.Base reused = new Delta.Base(base);
+            assertTest(Arrays.equals(Delta.create(reused, target), delta),
+                      "A reused base table should give the same delta");
+            assertTest(Arrays.equals(Delta.apply(base, Delta.create(reused, base)), base),
+                      "A delta against itself should round trip too");
+        } catch (Exception e) {
+            failTest("Exception during delta round trip test: " + e.getMessage());
+        }
+
+        System.out.println("✅ Delta round trip test passed\n");
+    }
+
+    /**
+     * Test that every revision of a file reads back the same after pack(), and old ones were deltified
+     */
+    private static void testPackRoundTrip(GitWrapper gitWrapper) {
+        System.out.println("Test 2: Pack and read back");
+
+        File testDir = new File("packTest");
+        try {
+            testDir.mkdirs();
+            Random random = new Random(12);
+            StringBuilder config = new StringBuilder();
+            for (int i = 0; i < 400; i++) {
+                config.append("key").append(i).append(" = ").append(random.nextInt(1000000000)).append('\n');
+            }
+            List<String> hashes = new ArrayList<>();
+            List<String> contents = new ArrayList<>();
+            long rawSize = 0;
+            for (int revision = 0; revision < 4; revision++) {
+                config.replace(revision * 200, revision * 200 + 6, "rev " + revision + " ");
+                Files.writeString(Paths.get("packTest", "config.txt"), config.toString());
+                Files.writeString(Paths.get("packTest", "small.txt"), "small " + revision);
+                gitWrapper.add("packTest/config.txt");
+                gitWrapper.add("packTest/small.txt");
+                captureOutput(() -> gitWrapper.commit("tester", "revision"));
+                hashes.add(Git.hashFile("packTest/config.txt"));
+                contents.add(config.toString());
+                rawSize += config.length();
+            }
+
+            String output = captureOutput(gitWrapper::pack);
+            assertTest(output.contains("packed objects into"), "pack() should report the packs it wrote");
+            assertTest(!ObjectStore.objectFile(hashes.get(0)).exists(), "Loose objects should be gone after packing");
+
+            long packSize = 0;
+            File[] packFiles = new File(Pack.PACK_DIR).listFiles();
+            assertTest(packFiles != null && packFiles.length == 2, "There should be one .pack and one .idx");
+            if (packFiles != null) {
+                for (File packFile : packFiles) {
+                    packSize += packFile.length();
+                }
+            }
+            boolean allMatch = true;
+            for (int i = 0; i < hashes.size(); i++) {
+                allMatch &= ObjectStore.readString(hashes.get(i)).equals(contents.get(i));
+            }
+            assertTest(allMatch, "Every revision should read back exactly from the pack");
+            // each revision deflates to about half its size, only deltas get all four under a quarter
+            assertTest(packSize < rawSize / 4, "Older revisions should be stored as deltas");
+        } catch (Exception e) {
+            failTest("Exception during pack round trip test: " + e.getMessage());
+        } finally {
+            try {
+                deleteRecursively(testDir);
+            } catch (IOException e) {
+                System.out.println("Warning: Could not clean up packTest: " + e.getMessage());
+            }
+        }
+
+        System.out.println("✅ Pack round trip test passed\n");
+    }
+
+    /**
+     * Tester for checkout: only the diff gets written, the index follows, untracked files are safe
+     */
+    public static void testCheckoutWorkflow() {
+        System.out.println("\n=== Git Checkout Workflow Tester ===\n");
+
+        cleanup();
+        GitWrapper gitWrapper = new GitWrapper();
+        File testDir = new File("checkoutTest");
+        try {
+            Git.makesEntireGitRepo();
+            Files.createDirectories(Paths.get("checkoutTest", "dir"));
+            Files.writeString(Paths.get("checkoutTest", "dir", "a.txt"), "one");
+            Files.writeString(Paths.get("checkoutTest", "keep.txt"), "keep");
+            gitWrapper.add("checkoutTest/dir/a.txt");
+            gitWrapper.add("checkoutTest/keep.txt");
+            String first = captureOutput(() -> gitWrapper.commit("tester", "first")).trim().replace("committed ", "");
+            Files.writeString(Paths.get("checkoutTest", "dir", "a.txt"), "two");
+            Files.writeString(Paths.get("checkoutTest", "new.txt"), "new");
+            gitWrapper.add("checkoutTest/dir/a.txt");
+            gitWrapper.add("checkoutTest/new.txt");
+            String second = captureOutput(() -> gitWrapper.commit("tester", "second")).trim().replace("committed ", "");
+
+            // Test 1: Checkout diff
+            testCheckoutDiff(gitWrapper, first, second);
+
+            // Test 2: Directory deleted by hand
+            testCheckoutMissingDirectory(gitWrapper, first, second);
+
+            // Test 3: Untracked files are not overwritten
+            testCheckoutKeepsUntracked(gitWrapper, first, second);
+
+            // Test 4: Directory replaced by a file
+            testCheckoutDirectoryToFile(gitWrapper, second);
+        } catch (IOException e) {
+            failTest("Failed to set up checkout tests: " + e.getMessage());
+        } finally {
+            try {
+                deleteRecursively(testDir);
+            } catch (IOException e) {
+                System.out.println("Warning: Could not clean up checkoutTest: " + e.getMessage());
+            }
+        }
+
+        System.out.println("\n=== Checkout Workflow Test Results ===");
+        System.out.println("Checkout workflow tests completed. Check individual test outputs above.");
+        cleanup();
+    }
+
+    /**
+     * Test that checkout writes what changed, removes what went away and moves the index and HEAD along
+     */
+    private static void testCheckoutDiff(GitWrapper gitWrapper, String first, String second) {
+        System.out.println("Test 1: Checkout diff");
+
+        try {
+            Files.writeString(Paths.get("checkoutTest", "untracked.txt"), "mine");
+            captureOutput(() -> gitWrapper.checkout(first));
+
+            assertTest(Files.readString(Paths.get("checkoutTest", "dir", "a.txt")).equals("one"),
+                      "Changed file should be back to the first version");
+            assertTest(!Files.exists(Paths.get("checkoutTest", "new.txt")), "File added later should be removed");
+            assertTest(Files.exists(Paths.get("checkoutTest", "untracked.txt")), "Untracked file should be left alone");
+            assertTest(Git.readHead().equals(first), "HEAD should point at the checked out commit");
+
+            Index index = Index.load();
+            assertTest(Git.hashFile("checkoutTest/dir/a.txt").equals(index.get("checkoutTest/dir/a.txt")),
+                      "Index should stage the checked out version");
+            assertTest(index.get("checkoutTest/new.txt") == null, "Index should drop the removed file");
+
+            // a commit straight after checkout has to be the same snapshot, not the newer one
+            String again = captureOutput(() -> gitWrapper.commit("tester", "again")).trim().replace("committed ", "");
+            assertTest(Tree.ofCommit(again).equals(Tree.ofCommit(first)),
+                      "Committing right after checkout should keep the checked out tree");
+            Files.delete(Paths.get("checkoutTest", "untracked.txt"));
+        } catch (Exception e) {
+            failTest("Exception during checkout diff test: " + e.getMessage());
+        }
+
+        System.out.println("✅ Checkout diff test passed\n");
+    }
+
+    /**
+     * Test that a changed directory the user deleted is made again
+     */
+    private static void testCheckoutMissingDirectory(GitWrapper gitWrapper, String first, String second) {
+        System.out.println("Test 2: Directory deleted by hand");
+
+        try {
+            captureOutput(() -> gitWrapper.checkout(second));
+            deleteRecursively(new File("checkoutTest/dir"));
+            String output = captureOutput(() -> gitWrapper.checkout(first));
+
+            assertTest(!output.contains("error"), "Checkout should not fail");
+            assertTest(Files.exists(Paths.get("checkoutTest", "dir", "a.txt"))
+                      && Files.readString(Paths.get("checkoutTest", "dir", "a.txt")).equals("one"),
+                      "File in the deleted directory should be restored");
+            assertTest(Git.readHead().equals(first), "HEAD should move to the checked out commit");
+        } catch (Exception e) {
+            failTest("Exception during missing directory test: " + e.getMessage());
+        }
+
+        System.out.println("✅ Missing directory test passed\n");
+    }
+
+    /**
+     * Test that checkout refuses, and changes nothing, when it would overwrite an untracked file
+     */
+    private static void testCheckoutKeepsUntracked(GitWrapper gitWrapper, String first, String second) {
+        System.out.println("Test 3: Untracked files are not overwritten");
+
+        try {
+            Files.writeString(Paths.get("checkoutTest", "new.txt"), "not committed");
+            String output = captureOutput(() -> gitWrapper.checkout(second));
+
+            assertTest(output.contains("would overwrite untracked files"), "Checkout should name the problem");
+            assertTest(Files.readString(Paths.get("checkoutTest", "new.txt")).equals("not committed"),
+                      "Untracked file should keep its content");
+            assertTest(Files.readString(Paths.get("checkoutTest", "dir", "a.txt")).equals("one"),
+                      "Nothing else should be checked out either");
+            assertTest(Git.readHead().equals(first), "HEAD should not move");
+
+            Files.delete(Paths.get("checkoutTest", "new.txt"));
+            captureOutput(() -> gitWrapper.checkout(second));
+            assertTest(Git.readHead().equals(second), "Checkout should work once the file is out of the way");
+        } catch (Exception e) {
+            failTest("Exception during untracked file test: " + e.getMessage());
+        }
+
+        System.out.println("✅ Untracked file test passed\n");
+    }
+
+    /**
+     * Test that a tracked directory can become a file, unless something untracked is still in it
+     */
+    private static void testCheckoutDirectoryToFile(GitWrapper gitWrapper, String second) {
+        System.out.println("Test 4: Directory replaced by a file");
+
+        try {
+            deleteRecursively(new File("checkoutTest/dir"));
+            Files.writeString(Paths.get("checkoutTest", "dir"), "a file now");
+            Index index = Index.load();
+            index.remove("checkoutTest/dir/a.txt");
+            index.flush();
+            gitWrapper.add("checkoutTest/dir");
+            String third = captureOutput(() -> gitWrapper.commit("tester", "third")).trim().replace("committed ", "");
+            captureOutput(() -> gitWrapper.checkout(second));
+            assertTest(Files.isDirectory(Paths.get("checkoutTest", "dir")), "File should turn back into the directory");
+
+            Files.writeString(Paths.get("checkoutTest", "dir", "extra.txt"), "not committed");
+            String output = captureOutput(() -> gitWrapper.checkout(third));
+            assertTest(output.contains("would overwrite untracked files") && output.contains("checkoutTest/dir/extra.txt")
+                      && !output.contains("    checkoutTest/dir\n"), "Checkout should name the untracked file, not the directory");
+            assertTest(Git.readHead().equals(second), "HEAD should not move while the untracked file is there");
+
+            Files.delete(Paths.get("checkoutTest", "dir", "extra.txt"));
+            output = captureOutput(() -> gitWrapper.checkout(third));
+            assertTest(!output.contains("would overwrite") && !output.contains("error"), "Checkout should not refuse");
+            assertTest(Files.isRegularFile(Paths.get("checkoutTest", "dir"))
+                      && Files.readString(Paths.get("checkoutTest", "dir")).equals("a file now"),
+                      "Directory should be replaced by the file");
+            index = Index.load();
+            assertTest(index.get("checkoutTest/dir") != null && index.get("checkoutTest/dir/a.txt") == null,
+                      "Index should have the file and not the directory's old contents");
+            assertTest(Git.readHead().equals(third), "HEAD should move to the checked out commit");
+        } catch (Exception e) {
+            failTest("Exception during directory to file test: " + e.getMessage());
+        }
+
+        System.out.println("✅ Directory to file test passed\n");
+    }
+
+    /**
+     * Tester for commit history: log, merge bases and ancestry over a small branching history
+     */
+    public static void testHistoryWorkflow() {
+        System.out.println("\n=== Git History Workflow Tester ===\n");
+
+        cleanup();
+        GitWrapper gitWrapper = new GitWrapper();
+        File testDir = new File("historyTest");
+        try {
+            Git.makesEntireGitRepo();
+            testDir.mkdirs();
+            // c1 <- c2 <- c3, and c4 branches off c1
+            String c1 = commitFile(gitWrapper, "one");
+            String c2 = commitFile(gitWrapper, "two");
+            String c3 = commitFile(gitWrapper, "three");
+            captureOutput(() -> gitWrapper.checkout(c1));
+            String c4 = commitFile(gitWrapper, "branch");
+
+            // Test 1: Commits and log
+            testCommitsAndLog(gitWrapper, c1, c4);
+
+            // Test 2: Merge base and ancestry
+            testMergeBaseAndAncestry(gitWrapper, c1, c2, c3, c4);
+        } catch (IOException e) {
+            failTest("Failed to set up history tests: " + e.getMessage());
+        } finally {
+            try {
+                deleteRecursively(testDir);
+            } catch (IOException e) {
+                System.out.println("Warning: Could not clean up historyTest: " + e.getMessage());
+            }
+        }
+
+        System.out.println("\n=== History Workflow Test Results ===");
+        System.out.println("History workflow tests completed. Check individual test outputs above.");
+        cleanup();
+    }
+
+    /**
+     * Helper method to commit one version of historyTest/file.txt
+     */
+    private static String commitFile(GitWrapper gitWrapper, String content) throws IOException {
+        Files.writeString(Paths.get("historyTest", "file.txt"), content);
+        gitWrapper.add("historyTest/file.txt");
+        String[] hash = new String[1];
+        captureOutput(() -> hash[0] = gitWrapper.commit("tester", content));
+        return hash[0];
+    }
+
+    /**
+     * Test that commits are well formed, end up in the commit-graph and log walks them newest first
+     */
+    private static void testCommitsAndLog(GitWrapper gitWrapper, String c1, String c4) {
+        System.out.println("Test 1: Commits and log");
+
+        try {
+            assertTest(!c1.isEmpty() && ObjectStore.exists(c1), "Commit object should be written");
+            String commitContent = ObjectStore.readString(c1);
+            assertTest(commitContent.startsWith("tree: ") && commitContent.contains("\nparent: \n"),
+                      "First commit should have a tree and an empty parent");
+            assertTest(ObjectStore.readString(c4).contains("parent: " + c1),
+                      "Commit made after checkout should have the checked out commit as parent");
+            assertTest(CommitGraph.open().size() == 4, "Commit-graph should hold every commit");
+
+            String[] lines = captureOutput(gitWrapper::log).trim().split("\n");
+            assertTest(lines.length == 2 && lines[0].equals(c4 + " branch") && lines[1].equals(c1 + " one"),
+                      "Log should list HEAD's history newest first with summaries");
+
+            Files.writeString(Paths.get(INDEX_FILE), "");
+            String[] empty = new String[1];
+            String output = captureOutput(() -> empty[0] = gitWrapper.commit("tester", "nothing"));
+            assertTest(empty[0].isEmpty() && output.contains("Nothing to commit"), "Empty index should not commit");
+        } catch (Exception e) {
+            failTest("Exception during commit and log test: " + e.getMessage());
+        }
+
+        System.out.println("✅ Commit and log test passed\n");
+    }
+
+    /**
+     * Test merge bases and ancestry across the branch
+     */
+    private static void testMergeBaseAndAncestry(GitWrapper gitWrapper, String c1, String c2, String c3, String c4) {
+        System.out.println("Test 2: Merge base and ancestry");
+
+        assertTest(gitWrapper.mergeBase(c3, c4).equals(c1), "Merge base of the two branches should be where they split");
+        assertTest(gitWrapper.mergeBase(c2, c3).equals(c2), "Merge base with an ancestor should be the ancestor");
+        assertTest(gitWrapper.mergeBase(c4, c4).equals(c4), "Merge base of a commit with itself should be itself");
+        assertTest(gitWrapper.isAncestor(c1, c3), "Root should be an ancestor of the tip");
+        assertTest(gitWrapper.isAncestor(c3, c3), "A commit should count as its own ancestor");
+        assertTest(!gitWrapper.isAncestor(c3, c1), "A descendant should not be an ancestor");
+        assertTest(!gitWrapper.isAncestor(c2, c4), "A commit on the other branch should not be an ancestor");
+
+        System.out.println("✅ Merge base and ancestry test passed\n");
+    }
+
+    /**
+     * Tester for status: staged, unstaged and untracked against HEAD and the index
+     */
+    public static void testStatusWorkflow() {
+        System.out.println("\n=== Git Status Workflow Tester ===\n");
+
+        cleanup();
+        GitWrapper gitWrapper = new GitWrapper();
+        File testDir = new File("statusTest");
+        try {
+            Git.makesEntireGitRepo();
+            Files.createDirectories(Paths.get("statusTest", "sub"));
+            Files.writeString(Paths.get("statusTest", "modified.txt"), "m");
+            Files.writeString(Paths.get("statusTest", "deleted.txt"), "d");
+            Files.writeString(Paths.get("statusTest", "staged.txt"), "s");
+            Files.writeString(Paths.get("statusTest", "sub", "touched.txt"), "t");
+            gitWrapper.addTree(Paths.get("statusTest"));
+
+            // Test 1: Before the first commit
+            testStatusBeforeCommit(gitWrapper);
+
+            captureOutput(() -> gitWrapper.commit("tester", "status base"));
+
+            // Test 2: Clean and changed working trees
+            testStatusChanges(gitWrapper);
+
+            // Test 3: Directory with a symlink loop
+            testStatusSkipsSymlinks(gitWrapper);
+        } catch (IOException e) {
+            failTest("Failed to set up status tests: " + e.getMessage());
+        } finally {
+            try {
+                deleteRecursively(testDir);
+            } catch (IOException e) {
+                System.out.println("Warning: Could not clean up statusTest: " + e.getMessage());
+            }
+        }
+
+        System.out.println("\n=== Status Workflow Test Results ===");
+        System.out.println("Status workflow tests completed. Check individual test outputs above.");
+        cleanup();
+    }
+
+    /**
+     * Test that with no HEAD everything staged shows as staged
+     */
+    private static void testStatusBeforeCommit(GitWrapper gitWrapper) {
+        System.out.println("Test 1: Before the first commit");
+
+        Status[] status = new Status[1];
+        captureOutput(() -> status[0] = gitWrapper.status());
+        assertTest(status[0] != null, "Status should be read");
+        if (status[0] != null) {
+            assertTest(status[0].staged.equals(List.of("statusTest/deleted.txt", "statusTest/modified.txt",
+                      "statusTest/staged.txt", "statusTest/sub/touched.txt")), "Every staged file should be staged, in path order");
+            assertTest(status[0].unstaged.isEmpty() && inStatusTest(status[0].untracked).isEmpty(),
+                      "Nothing should be unstaged or untracked");
+        }
+
+        System.out.println("✅ Before first commit test passed\n");
+    }
+
+    /**
+     * Test each kind of change ends up in the right list, and a touched but unchanged file in none
+     */
+    private static void testStatusChanges(GitWrapper gitWrapper) {
+        System.out.println("Test 2: Clean and changed working trees");
+
+        try {
+            Status[] status = new Status[1];
+            captureOutput(() -> status[0] = gitWrapper.status());
+            assertTest(status[0] != null && status[0].staged.isEmpty() && status[0].unstaged.isEmpty()
+                      && inStatusTest(status[0].untracked).isEmpty(), "Status right after a commit should be clean");
+
+            Files.writeString(Paths.get("statusTest", "modified.txt"), "changed");
+            Files.delete(Paths.get("statusTest", "deleted.txt"));
+            Files.writeString(Paths.get("statusTest", "staged.txt"), "staged change");
+            gitWrapper.add("statusTest/staged.txt");
+            Files.writeString(Paths.get("statusTest", "sub", "new.txt"), "n");
+            // same content, new mtime, so it has to be hashed and then found unchanged
+            Files.writeString(Paths.get("statusTest", "sub", "touched.txt"), "t");
+
+            String output = captureOutput(() -> status[0] = gitWrapper.status());
+            assertTest(status[0] != null, "Status should be read");
+            if (status[0] != null) {
+                assertTest(status[0].staged.equals(List.of("statusTest/staged.txt")), "Added change should be staged");
+                assertTest(status[0].unstaged.equals(List.of("statusTest/deleted.txt", "statusTest/modified.txt")),
+                          "Modified and deleted files should be unstaged");
+                assertTest(inStatusTest(status[0].untracked).equals(List.of("statusTest/sub/new.txt")),
+                          "New file should be untracked");
+            }
+            assertTest(output.contains("Changes to be committed:") && output.contains("Changes not staged for commit:")
+                      && output.contains("Untracked files:"), "Status should print every section");
+        } catch (Exception e) {
+            failTest("Exception during status changes test: " + e.getMessage());
+        }
+
+        System.out.println("✅ Status changes test passed\n");
+    }
+
+    /**
+     * Test that a link back up the tree doesn't break status or show up in it
+     */
+    private static void testStatusSkipsSymlinks(GitWrapper gitWrapper) {
+        System.out.println("Test 3: Directory with a symlink loop");
+
+        if (!createLink(Paths.get("statusTest", "sub", "loop"), Paths.get(".."))) {
+            return;
+        }
+        Status[] status = new Status[1];
+        String output = captureOutput(() -> status[0] = gitWrapper.status());
+        assertTest(status[0] != null && !output.contains("error"), "Status should be read with the link there");
+        if (status[0] != null) {
+            assertTest(inStatusTest(status[0].untracked).equals(List.of("statusTest/sub/new.txt")),
+                      "Nothing through the link should be untracked");
+            assertTest(status[0].unstaged.equals(List.of("statusTest/deleted.txt", "statusTest/modified.txt")),
+                      "Unstaged files should be the same as without the link");
+        }
+
+        System.out.println("✅ Symlink loop status test passed\n");
+    }
+
+    /**
+     * Helper method to leave out whatever else is lying around in the directory the tests run in
+     */
+    private static List<String> inStatusTest(List<String> paths) {
+        List<String> inside = new ArrayList<>();
+        for (String path : paths) {
+            if (path.startsWith("statusTest/")) {
+                inside.add(path);
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Looks up single paths in git/index (or git/index.stat) without loading the whole thing.
+ * The file is memory-mapped and, since its lines are sorted by path, a lookup is a
+ * binary search over byte offsets: jump to the middle, back up to the start of that line,
+ * compare the path bytes in place. Only the line that matches ever becomes a String.
+ */
+public class MappedIndex {
+    private final ByteBuffer data;
+    // how many space separated fields come before the path on each line
+    private final int fieldsBeforePath;
+
+    private MappedIndex(ByteBuffer data, int fieldsBeforePath) {
+        this.data = data;
+        this.fieldsBeforePath = fieldsBeforePath;
+    }
+
+    /**
+     * Maps git/index, where each line is "hash path".
+     */
+    public static MappedIndex open() throws IOException {
+        return open(new File(Index.INDEX_FILE), 1);
+    }
+
+    /**
+     * Maps git/index.stat, where each line is "size mtime ctime inode hash path".
+     */
+    public static MappedIndex openStats() throws IOException {
+        return open(new File(Index.STAT_FILE), 5);
+    }
+
+    private static MappedIndex open(File file, int fieldsBeforePath) throws IOException {
+        if (!file.exists()) {
+            return new MappedIndex(ByteBuffer.allocate(0), fieldsBeforePath);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Index too big to map: " + file);
+            }
+            return new MappedIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), fieldsBeforePath);
+        }
+    }
+
+    /**
+     * The staged hash for a path, or null if it isn't staged.
+     */
+    public String lookupHash(String path) {
+        String line = findLine(path);
+        return line == null ? null : line.substring(0, line.indexOf(' '));
+    }
+
+    /**
+     * The whole line for a path, or null if there isn't one.
+     * @param path The path relative to the repo root, as the index stores it.
+     */
+    public String findLine(String path) {
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        // low is always the start of a line, high is one past the last byte still in play
+        int low = 0;
+        int high = data.limit();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int lineStart = mid;
+            while (lineStart > low && data.get(lineStart - 1) != '\n') {
+                lineStart--;
+            }
+            int lineEnd = lineStart;
+            while (lineEnd < data.limit() && data.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd > lineStart && data.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            int pathStart = pathStart(lineStart, contentEnd);
+            int cmp = pathStart < 0 ? -1 : compare(pathStart, contentEnd, key);
+            if (cmp == 0) {
+                byte[] line = new byte[contentEnd - lineStart];
+                data.get(lineStart, line);
+                return new String(line, StandardCharsets.UTF_8);
+            }
+            if (cmp < 0) {
+                low = lineEnd + 1;
+            } else {
+                high = lineStart;
+            }
+        }
+        return null;
+    }
+
+    // -1 for a line too short to have a path, those sort first and never match
+    private int pathStart(int lineStart, int lineEnd) {
+        int position = lineStart;
+        for (int field = 0; field < fieldsBeforePath; field++) {
+            while (position < lineEnd && data.get(position) != ' ') {
+                position++;
+            }
+            if (position >= lineEnd) {
+                return -1;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    // unsigned byte order, which for UTF-8 is the same as code point order (Index.PATH_ORDER)
+    private int compare(int start, int end, byte[] key) {
+        int length = Math.min(end - start, key.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = Integer.compare(data.get(start + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(end - start, key.length);
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide counters and latency histograms, dumped in the Prometheus text format on demand.
+ * JFR (see GitEvents) says what one slow call did, this says how all of them have been doing.
+ *
+ * Counters are LongAdders and histograms are arrays of atomic buckets, so recording never
+ * takes a lock and costs about the same from any number of threads.
+ * Metrics are made once, usually into a static final, and the same name gives back the same metric.
+ * Names can carry labels the Prometheus way, e.g. git_cache_hits_total{cache="trees"}.
+ */
+public class Metrics {
+    private static final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    private static class Family {
+        final String help;
+        final String type;
+        final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * A log-linear histogram like HdrHistogram: every power of two is split into 16 buckets,
+     * so any value is kept to within about 6% no matter how big it is.
+     * Values are nanoseconds and get exported in seconds.
+     */
+    public static class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+        private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+        }
+
+        /**
+         * Records the time since start, which came from System.nanoTime().
+         */
+        public void recordSince(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        /**
+         * The value at quantile q (0 to 1), as the top of the bucket it falls in, 0 if nothing was recorded.
+         */
+        public long quantile(double q) {
+            long[] snapshot = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return highestInBucket(i);
+                }
+            }
+            return highestInBucket(snapshot.length - 1);
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) - SUB_COUNT;
+            return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        static long highestInBucket(int bucket) {
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+            int sub = bucket % SUB_COUNT;
+            long lowest = (long) (SUB_COUNT + sub) << (exponent - SUB_BITS);
+            return lowest + (1L << (exponent - SUB_BITS)) - 1;
+        }
+    }
+
+    public static Counter counter(String name, String help) {
+        return (Counter) register(name, help, "counter", new Counter());
+    }
+
+    public static Histogram histogram(String name, String help) {
+        return (Histogram) register(name, help, "summary", new Histogram());
+    }
+
+    /**
+     * A counter kept somewhere else (like ObjectCache's hit counts), read when dumping.
+     */
+    public static void counterFunction(String name, String help, LongSupplier value) {
+        register(name, help, "counter", value);
+    }
+
+    public static void gauge(String name, String help, LongSupplier value) {
+        register(name, help, "gauge", value);
+    }
+
+    private static Object register(String name, String help, String type, Object metric) {
+        int brace = name.indexOf('{');
+        String familyName = brace < 0 ? name : name.substring(0, brace);
+        String labels = brace < 0 ? "" : name.substring(brace + 1, name.length() - 1);
+        Family family = families.computeIfAbsent(familyName, n -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(familyName + " is already a " + family.type);
+        }
+        Object existing = family.series.putIfAbsent(labels, metric);
+        return existing != null ? existing : metric;
+    }
+
+    /**
+     * Everything registered so far in the Prometheus text format, sorted by name.
+     */
+    public static String snapshot() {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        for (Map.Entry<String, Family> entry : new TreeMap<>(families).entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.print("# HELP " + name + " " + family.help + "\n");
+            out.print("# TYPE " + name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof Counter) {
+                    out.print(name + braces(labels) + " " + ((Counter) metric).get() + "\n");
+                } else if (metric instanceof LongSupplier) {
+                    out.print(name + braces(labels) + " " + ((LongSupplier) metric).getAsLong() + "\n");
+                } else {
+                    Histogram histogram = (Histogram) metric;
+                    for (double q : Histogram.QUANTILES) {
+                        String quantile = "quantile=\"" + q + "\"";
+                        out.print(name + braces(labels.isEmpty() ? quantile : labels + "," + quantile) + " "
+                                + seconds(histogram.quantile(q)) + "\n");
+                    }
+                    out.print(name + "_sum" + braces(labels) + " " + seconds(histogram.sum.sum()) + "\n");
+                    out.print(name + "_count" + braces(labels) + " " + histogram.count() + "\n");
+                }
+            }
+        }
+        out.flush();
+        return text.toString();
+    }
+
+    public static void print(PrintStream out) {
+        out.print(snapshot());
+        out.flush();
+    }
+
+    /**
+     * Writes the snapshot to a file, through a temp file so a scraper never reads half of it.
+     */
+    public static void writeTo(Path file) throws IOException {
+        AtomicFile.write(file, snapshot().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+}
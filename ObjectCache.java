@@ -0,0 +1,120 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * A least-recently-used cache of things read out of the object store, bounded by an
+ * estimate of how many bytes they take up. Objects never change once written, so
+ * anything keyed by hash can be cached forever and only memory decides what goes.
+ *
+ * Every method locks the whole map, a LinkedHashMap in access order moves entries on get,
+ * so even lookups change it. The work done under the lock is tiny next to the inflate it saves.
+ *
+ * The shared caches are TREES (parsed tree objects, used by checkout, status and packing)
+ * and BLOBS (small blob contents, used by checkout). Their limits come from the
+ * git.treeCacheBytes, git.blobCacheBytes and git.blobCacheMaxObject properties.
+ */
+public class ObjectCache<V> {
+    public static final ObjectCache<List<Tree.Entry>> TREES = new ObjectCache<>("trees",
+            Long.getLong("git.treeCacheBytes", 16L << 20), Tree::weight);
+    public static final ObjectCache<byte[]> BLOBS = new ObjectCache<>("blobs",
+            Long.getLong("git.blobCacheBytes", 16L << 20), content -> content.length);
+    // bigger blobs are streamed and never cached
+    public static final long MAX_BLOB_SIZE = Long.getLong("git.blobCacheMaxObject", 64L << 10);
+
+    private final String name;
+    private final long limit;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<ObjectId, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param name What's cached, used in toString and as the cache label on its metrics.
+     * @param limit Roughly how many bytes the cache may hold.
+     * @param weigher Estimates the bytes a value takes up.
+     */
+    public ObjectCache(String name, long limit, ToLongFunction<V> weigher) {
+        this.name = name;
+        this.limit = limit;
+        this.weigher = weigher;
+        String label = "{cache=\"" + name + "\"}";
+        Metrics.counterFunction("git_cache_hits_total" + label, "Object cache lookups that found the object.", this::hits);
+        Metrics.counterFunction("git_cache_misses_total" + label, "Object cache lookups that had to read the object.", this::misses);
+        Metrics.gauge("git_cache_bytes" + label, "Estimated bytes held by the object cache.", this::bytes);
+    }
+
+    /**
+     * The cached value for a hash, or null (counted as a miss) if it isn't cached.
+     */
+    public V get(ObjectId hash) {
+        V value;
+        synchronized (entries) {
+            value = entries.get(hash);
+        }
+        (value == null ? misses : hits).incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Caches a value, evicting the least recently used ones until it fits.
+     * A value over a quarter of the limit isn't cached, so one huge object can't flush everything else.
+     */
+    public void put(ObjectId hash, V value) {
+        long weight = weigher.applyAsLong(value);
+        if (weight > limit / 4) {
+            return;
+        }
+        synchronized (entries) {
+            V previous = entries.put(hash, value);
+            bytes += weight - (previous == null ? 0 : weigher.applyAsLong(previous));
+            Iterator<V> eldest = entries.values().iterator();
+            while (bytes > limit && eldest.hasNext()) {
+                bytes -= weigher.applyAsLong(eldest.next());
+                eldest.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long bytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + size() + " objects, " + bytes() + " bytes, " + hits() + " hits, " + misses() + " misses";
+    }
+
+    /**
+     * One line per shared cache, for printing after a big checkout.
+     */
+    public static String stats() {
+        return TREES + "\n" + BLOBS;
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * A SHA-1 object id held as two longs and an int instead of a 40 character hex String.
+ * That's 20 bytes of data instead of about 100 bytes of String, and equals, hashCode and
+ * compareTo work on the numbers directly.
+ *
+ * Hex only comes in and goes out at the edges: reading and writing the index and tree objects,
+ * file names in git/objects, and whatever gets printed. Hex is always the uppercase kind makeItHex makes.
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+    public static final int LENGTH = 20;
+    public static final int HEX_LENGTH = LENGTH * 2;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    // the 20 bytes big endian, first 8, next 8, last 4
+    private final long first;
+    private final long second;
+    private final int third;
+
+    private ObjectId(long first, long second, int third) {
+        this.first = first;
+        this.second = second;
+        this.third = third;
+    }
+
+    public static ObjectId fromBytes(byte[] bytes) {
+        return fromBytes(bytes, 0);
+    }
+
+    public static ObjectId fromBytes(byte[] bytes, int offset) {
+        if (bytes.length - offset < LENGTH) {
+            throw new IllegalArgumentException("An object id needs " + LENGTH + " bytes");
+        }
+        return new ObjectId(readLong(bytes, offset), readLong(bytes, offset + 8),
+                (int) (readLong(bytes, offset + 12) & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Parses 40 hex digits, either case.
+     */
+    public static ObjectId fromHex(String hex) {
+        return fromHex(hex, 0);
+    }
+
+    /**
+     * Parses the 40 hex digits starting at offset, so a line can be read without cutting it up first.
+     */
+    public static ObjectId fromHex(CharSequence text, int offset) {
+        if (text.length() - offset < HEX_LENGTH) {
+            throw new IllegalArgumentException("Not an object hash: " + text);
+        }
+        return new ObjectId(parseHex(text, offset, 16), parseHex(text, offset + 16, 16),
+                (int) parseHex(text, offset + 32, 8));
+    }
+
+    public static boolean isHex(String text) {
+        if (text.length() != HEX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            if (Character.digit(text.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public byte[] toBytes() {
+        byte[] bytes = new byte[LENGTH];
+        copyTo(bytes, 0);
+        return bytes;
+    }
+
+    public void copyTo(byte[] bytes, int offset) {
+        writeLong(bytes, offset, first);
+        writeLong(bytes, offset + 8, second);
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + 16 + i] = (byte) (third >>> (24 - 8 * i));
+        }
+    }
+
+    /**
+     * 40 uppercase hex digits, the same thing makeItHex gives.
+     */
+    public String toHex() {
+        char[] hex = new char[HEX_LENGTH];
+        formatHex(hex, 0, first, 16);
+        formatHex(hex, 16, second, 16);
+        formatHex(hex, 32, third & 0xFFFFFFFFL, 8);
+        return new String(hex);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId id = (ObjectId) other;
+        return first == id.first && second == id.second && third == id.third;
+    }
+
+    // the bytes of a SHA-1 are already as random as it gets, any 32 of them do
+    @Override
+    public int hashCode() {
+        return (int) (first >>> 32);
+    }
+
+    // unsigned, so ids sort the same as their hex does
+    @Override
+    public int compareTo(ObjectId other) {
+        int cmp = Long.compareUnsigned(first, other.first);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(second, other.second);
+        }
+        if (cmp == 0) {
+            cmp = Integer.compareUnsigned(third, other.third);
+        }
+        return cmp;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    private static long parseHex(CharSequence text, int offset, int digits) {
+        long value = 0;
+        for (int i = 0; i < digits; i++) {
+            int digit = Character.digit(text.charAt(offset + i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Not an object hash: " + text);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static void formatHex(char[] out, int offset, long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            out[offset + i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes everything under git/objects.
+ * Every object is stored deflated as "type size\0" followed by the raw content.
+ * The hash is still the SHA-1 of the raw content so it matches hashFile.
+ * Objects are fanned out by the first two hex digits (git/objects/AB/CDEF...)
+ * so no single directory ends up with hundreds of thousands of entries.
+ * Anything not found loose is looked up in the packs under git/objects/pack, see Pack.
+ */
+public class ObjectStore {
+    public static final String OBJECTS_DIR = "git/objects";
+    static final Metrics.Counter OBJECTS_WRITTEN = Metrics.counter("git_objects_written_total",
+            "Loose objects written to the object store.");
+    static final Metrics.Counter BYTES_HASHED = Metrics.counter("git_bytes_hashed_total",
+            "Bytes run through SHA-1, from files and from objects.");
+
+    // fan-out directories we already know are on disk, so writes don't mkdir every time
+    private static final Set<String> knownFanOutDirs = ConcurrentHashMap.newKeySet();
+
+    private static volatile List<Pack> packs = List.of();
+    // last modified time of the pack directory when packs was loaded, 0 if it didn't exist
+    private static volatile long packDirStamp = 0;
+
+    /**
+     * An inflating stream over an object's content, with the header already read off.
+     */
+    public static class ObjectInput extends FilterInputStream {
+        public final String type;
+        public final long size;
+
+        ObjectInput(InputStream in, String type, long size) {
+            super(in);
+            this.type = type;
+            this.size = size;
+        }
+    }
+
+    public static File objectFile(String hash) {
+        return new File(fanOutDir(hash), hash.substring(2));
+    }
+
+    private static File fanOutDir(String hash) {
+        if (hash.length() < 3) {
+            throw new IllegalArgumentException("Not an object hash: " + hash);
+        }
+        return new File(OBJECTS_DIR, hash.substring(0, 2));
+    }
+
+    public static boolean exists(String hash) {
+        return objectFile(hash).exists() || findPack(hash) != null;
+    }
+
+    private static Pack findPack(String hash) {
+        for (Pack pack : packs()) {
+            if (pack.contains(hash)) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    // one stat of the pack directory tells us if a pack showed up or went away
+    private static List<Pack> packs() {
+        if (new File(Pack.PACK_DIR).lastModified() != packDirStamp) {
+            reloadPacks();
+        }
+        return packs;
+    }
+
+    /**
+     * Re-maps whatever packs are in git/objects/pack right now.
+     */
+    public static synchronized void reloadPacks() {
+        File packDir = new File(Pack.PACK_DIR);
+        long stamp = packDir.lastModified();
+        List<Pack> loaded = new ArrayList<>();
+        File[] idxFiles = packDir.listFiles((dir, name) -> name.startsWith("pack-") && name.endsWith(".idx"));
+        if (idxFiles != null) {
+            Arrays.sort(idxFiles);
+            for (File idxFile : idxFiles) {
+                try {
+                    loaded.add(Pack.open(idxFile));
+                } catch (IOException e) {
+                    System.err.println("Skipping unreadable pack " + idxFile + ": " + e.getMessage());
+                }
+            }
+        }
+        packs = List.copyOf(loaded);
+        packDirStamp = stamp;
+    }
+
+    /**
+     * Streams a file into the store as a blob, hashing and compressing in the same pass.
+     * @param filePath The file to store.
+     * @return The SHA1 hash of the file contents.
+     */
+    public static String writeBlob(String filePath) throws IOException {
+        Path source = Paths.get(filePath);
+        long size = Files.size(source);
+        Path tempFile = AtomicFile.createTemp(Paths.get(OBJECTS_DIR), "tmp_obj_");
+        String hash;
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.write(header("blob", size));
+            MessageDigest digest = Git.newDigest();
+            byte[] buffer = new byte[8192];
+            long copied = 0;
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+                out.write(buffer, 0, bytesRead);
+                copied += bytesRead;
+            }
+            if (copied != size) {
+                throw new IOException("File changed while it was being added: " + filePath);
+            }
+            BYTES_HASHED.add(copied);
+            hash = Git.makeItHex(digest.digest());
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        install(tempFile, hash);
+        return hash;
+    }
+
+    /**
+     * Stores an in-memory object such as a tree or commit.
+     * @return The SHA1 hash of the content.
+     */
+    public static String writeObject(String type, byte[] content) throws IOException {
+        String hash = Git.makeItHex(Git.newDigest().digest(content));
+        BYTES_HASHED.add(content.length);
+        if (exists(hash)) {
+            return hash;
+        }
+        Path tempFile = AtomicFile.createTemp(Paths.get(OBJECTS_DIR), "tmp_obj_");
+        try (OutputStream out = new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.write(header(type, content.length));
+            out.write(content);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        install(tempFile, hash);
+        return hash;
+    }
+
+    // rename is atomic so nobody ever sees half an object
+    private static void install(Path tempFile, String hash) throws IOException {
+        File objectFile = objectFile(hash);
+        if (exists(hash)) {
+            Files.delete(tempFile);
+            return;
+        }
+        AtomicFile.makeReadOnly(tempFile);
+        String dirName = hash.substring(0, 2);
+        if (!knownFanOutDirs.contains(dirName)) {
+            Files.createDirectories(fanOutDir(hash).toPath());
+            knownFanOutDirs.add(dirName);
+        }
+        try {
+            Files.move(tempFile, objectFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // somebody deleted the directory behind our back, forget it and try once more
+            knownFanOutDirs.remove(dirName);
+            Files.createDirectories(fanOutDir(hash).toPath());
+            knownFanOutDirs.add(dirName);
+            Files.move(tempFile, objectFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        OBJECTS_WRITTEN.increment();
+    }
+
+    private static byte[] header(String type, long size) {
+        return (type + " " + size + "\0").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Opens an object for reading, loose or packed.
+     * The caller gets the inflated content, header already consumed.
+     */
+    public static ObjectInput open(String hash) throws IOException {
+        InputStream raw;
+        try {
+            raw = new BufferedInputStream(Files.newInputStream(objectFile(hash).toPath()));
+        } catch (NoSuchFileException e) {
+            // not loose (or packed away since), try the packs
+            Pack pack = findPack(hash);
+            if (pack == null) {
+                throw new IOException("Object not found: " + hash);
+            }
+            return pack.open(hash);
+        }
+        return readHeader(new InflaterInputStream(raw), hash);
+    }
+
+    // reads "type size\0" off an inflated object stream
+    static ObjectInput readHeader(InputStream in, String hash) throws IOException {
+        try {
+            String type = readHeaderField(in, ' ');
+            long size = Long.parseLong(readHeaderField(in, '\0'));
+            return new ObjectInput(in, type, size);
+        } catch (IOException | NumberFormatException e) {
+            in.close();
+            throw new IOException("Corrupt object header: " + hash, e);
+        }
+    }
+
+    private static String readHeaderField(InputStream in, char end) throws IOException {
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != end) {
+            if (b == -1) {
+                throw new EOFException();
+            }
+            field.write(b);
+        }
+        return field.toString(StandardCharsets.US_ASCII);
+    }
+
+    public static byte[] readBytes(String hash) throws IOException {
+        try (ObjectInput in = open(hash)) {
+            if (in.size > Integer.MAX_VALUE - 8) {
+                throw new IOException("Object too big to read into memory: " + hash);
+            }
+            byte[] content = in.readNBytes((int) in.size);
+            if (content.length != in.size) {
+                throw new IOException("Object is truncated: " + hash);
+            }
+            return content;
+        }
+    }
+
+    public static String readString(String hash) throws IOException {
+        return new String(readBytes(hash), StandardCharsets.UTF_8);
+    }
+}
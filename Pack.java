@@ -0,0 +1,467 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A pack file: lots of objects in one file instead of one file each.
+ *
+ * pack-NAME.pack is "PACK", a version int and an object count, followed by the objects.
+ * Each object starts with a kind byte. WHOLE is followed by the object exactly like its
+ * loose file (deflated "type size\0" + content). DELTA is followed by the 20 byte id of a
+ * base blob and a deflated Delta that turns the base into this blob.
+ * (Version 1 packs have no kind byte, every object in them is WHOLE.)
+ * pack-NAME.idx is "PIDX", a version int and the count, followed by one fixed width entry
+ * per object sorted by hash: 20 hash bytes, 8 byte offset, 8 byte length.
+ * Both are memory-mapped, so finding an object is a binary search over the mapped idx
+ * and reading it never needs an open/read/close.
+ *
+ * When packing, blobs are sorted by file name (from the index and every tree in HEAD's
+ * history, so old versions are named too) and then size, and each one is tried as a
+ * delta against the few blobs before it (a sliding window), which is where other versions
+ * of the same file end up. Delta chains are kept short, and recently used bases are
+ * kept in a small cache so reading a deep chain doesn't rebuild every base every time.
+ */
+public class Pack {
+    public static final String PACK_DIR = ObjectStore.OBJECTS_DIR + "/pack";
+    // a MappedByteBuffer can't go past 2GB, keep packs well under that
+    static final long MAX_PACK_SIZE = 1L << 30;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int ID_SIZE = 20;
+    private static final int ENTRY_SIZE = ID_SIZE + 16;
+    private static final int WHOLE = 0;
+    private static final int DELTA = 1;
+
+    // delta search settings
+    private static final int WINDOW = 10;
+    private static final int MAX_DEPTH = 10;
+    private static final int MIN_DELTA_SIZE = 64;
+    private static final long MAX_DELTA_SIZE = 16L << 20;
+
+    // bases we rebuilt recently, so walking down a delta chain is paid for once
+    private static final ObjectCache<byte[]> baseCache = new ObjectCache<>("delta bases",
+            Long.getLong("git.deltaBaseCacheBytes", 32L << 20), content -> content.length);
+
+    private final MappedByteBuffer pack;
+    private final MappedByteBuffer idx;
+    private final int version;
+    private final int count;
+
+    private Pack(String name, MappedByteBuffer pack, MappedByteBuffer idx) throws IOException {
+        this.pack = pack;
+        this.idx = idx;
+        if (idx.capacity() < HEADER_SIZE || idx.getInt(0) != 0x50494458
+                || idx.getInt(4) < 1 || idx.getInt(4) > VERSION) {
+            throw new IOException("Not a pack index: " + name);
+        }
+        this.version = idx.getInt(4);
+        this.count = idx.getInt(8);
+        if (idx.capacity() < HEADER_SIZE + (long) count * ENTRY_SIZE) {
+            throw new IOException("Pack index is truncated: " + name);
+        }
+    }
+
+    /**
+     * Maps a pack and its index.
+     * @param idxFile The .idx file, the .pack next to it is found from its name.
+     */
+    public static Pack open(File idxFile) throws IOException {
+        String idxName = idxFile.getName();
+        String name = idxName.substring(0, idxName.length() - ".idx".length());
+        File packFile = new File(idxFile.getParentFile(), name + ".pack");
+        return new Pack(name, map(packFile.toPath()), map(idxFile.toPath()));
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Binary searches the index.
+     * @return The entry number, or -1 if this pack doesn't have the object.
+     */
+    int find(byte[] id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareId(HEADER_SIZE + mid * ENTRY_SIZE, id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareId(int position, byte[] id) {
+        for (int i = 0; i < ID_SIZE; i++) {
+            int cmp = Integer.compare(idx.get(position + i) & 0xFF, id[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    public boolean contains(String hash) {
+        return find(toBytes(hash)) >= 0;
+    }
+
+    /**
+     * Opens an object stored in this pack, rebuilding it from its base if it's a delta.
+     * @return The object with its header read, or null if this pack doesn't have it.
+     */
+    public ObjectStore.ObjectInput open(String hash) throws IOException {
+        int entry = find(toBytes(hash));
+        if (entry < 0) {
+            return null;
+        }
+        int position = HEADER_SIZE + entry * ENTRY_SIZE + ID_SIZE;
+        int offset = (int) idx.getLong(position);
+        int length = (int) idx.getLong(position + 8);
+        ByteBuffer data = pack.duplicate().position(offset).limit(offset + length).slice();
+        int kind = version >= 2 ? data.get() : WHOLE;
+        if (kind == WHOLE) {
+            return ObjectStore.readHeader(new InflaterInputStream(new BufferInputStream(data)), hash);
+        }
+        if (kind != DELTA) {
+            throw new IOException("Unknown pack entry kind " + kind + " for " + hash);
+        }
+        byte[] baseId = new byte[ID_SIZE];
+        data.get(baseId);
+        byte[] delta;
+        try (InputStream in = new InflaterInputStream(new BufferInputStream(data))) {
+            delta = in.readAllBytes();
+        }
+        byte[] content = Delta.apply(baseContent(ObjectId.fromBytes(baseId)), delta);
+        return new ObjectStore.ObjectInput(new ByteArrayInputStream(content), "blob", content.length);
+    }
+
+    private static byte[] baseContent(ObjectId hash) throws IOException {
+        byte[] cached = baseCache.get(hash);
+        if (cached != null) {
+            return cached;
+        }
+        // the base may be a delta itself, this is where the chain gets walked
+        byte[] content = ObjectStore.readBytes(hash.toHex());
+        baseCache.put(hash, content);
+        return content;
+    }
+
+    static byte[] toBytes(String hash) {
+        if (hash.length() != ID_SIZE * 2) {
+            throw new IllegalArgumentException("Not an object hash: " + hash);
+        }
+        byte[] id = new byte[ID_SIZE];
+        for (int i = 0; i < ID_SIZE; i++) {
+            id[i] = (byte) Integer.parseInt(hash, i * 2, i * 2 + 2, 16);
+        }
+        return id;
+    }
+
+    /**
+     * Moves every loose object into new packs and deletes the loose copies.
+     * Objects too big for a pack are left loose.
+     * @return The names of the packs written.
+     */
+    public static List<String> packLooseObjects() throws IOException {
+        List<String> hashes = new ArrayList<>();
+        File[] fanOutDirs = new File(ObjectStore.OBJECTS_DIR).listFiles();
+        if (fanOutDirs != null) {
+            for (File dir : fanOutDirs) {
+                if (!dir.isDirectory() || dir.getName().length() != 2) {
+                    continue;
+                }
+                String[] names = dir.list();
+                if (names == null) {
+                    continue;
+                }
+                for (String rest : names) {
+                    if (ObjectStore.objectFile(dir.getName() + rest).length() < MAX_PACK_SIZE) {
+                        hashes.add(dir.getName() + rest);
+                    }
+                }
+            }
+        }
+        // uppercase hex sorts the same as the bytes it stands for
+        hashes.sort(null);
+        Map<String, DeltaEntry> deltas = findDeltas(hashes);
+        List<String> written = new ArrayList<>();
+        int start = 0;
+        while (start < hashes.size()) {
+            int end = start;
+            long size = HEADER_SIZE;
+            while (end < hashes.size() && (end == start
+                    || size + entrySize(hashes.get(end), deltas) <= MAX_PACK_SIZE)) {
+                size += entrySize(hashes.get(end), deltas);
+                end++;
+            }
+            written.add(write(hashes.subList(start, end), deltas));
+            start = end;
+        }
+        ObjectStore.reloadPacks();
+        for (String hash : hashes) {
+            Files.deleteIfExists(ObjectStore.objectFile(hash).toPath());
+        }
+        return written;
+    }
+
+    private static class DeltaEntry {
+        final String base;
+        final byte[] deflated;
+
+        DeltaEntry(String base, byte[] deflated) {
+            this.base = base;
+            this.deflated = deflated;
+        }
+    }
+
+    private static class Candidate {
+        final String hash;
+        final String name;
+        final long size;
+        // set while it's in the window and can still be a base
+        Delta.Base base;
+        int depth;
+
+        Candidate(String hash, String name, long size) {
+            this.hash = hash;
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+    private static long entrySize(String hash, Map<String, DeltaEntry> deltas) {
+        DeltaEntry delta = deltas.get(hash);
+        if (delta != null) {
+            return 1 + ID_SIZE + delta.deflated.length;
+        }
+        return 1 + ObjectStore.objectFile(hash).length();
+    }
+
+    // picks which blobs get stored as deltas and against what
+    private static Map<String, DeltaEntry> findDeltas(List<String> hashes) throws IOException {
+        Map<String, String> names = blobNames(hashes);
+        List<Candidate> candidates = new ArrayList<>();
+        for (String hash : hashes) {
+            try (ObjectStore.ObjectInput in = ObjectStore.open(hash)) {
+                if (in.type.equals("blob") && in.size >= MIN_DELTA_SIZE && in.size <= MAX_DELTA_SIZE) {
+                    candidates.add(new Candidate(hash, names.getOrDefault(hash, ""), in.size));
+                }
+            }
+        }
+        // same name together, biggest first so smaller versions delta against bigger ones
+        candidates.sort(Comparator.comparing((Candidate c) -> c.name)
+                .thenComparing(Comparator.comparingLong((Candidate c) -> c.size).reversed())
+                .thenComparing(c -> c.hash));
+
+        Map<String, DeltaEntry> deltas = new HashMap<>();
+        ArrayDeque<Candidate> window = new ArrayDeque<>();
+        for (Candidate candidate : candidates) {
+            byte[] content = ObjectStore.readBytes(candidate.hash);
+            Candidate bestBase = null;
+            byte[] best = null;
+            for (Candidate base : window) {
+                if (base.base == null) {
+                    continue;
+                }
+                byte[] delta = Delta.create(base.base, content);
+                // only worth it if it saves at least half
+                if (delta.length < content.length / 2 && (best == null || delta.length < best.length)) {
+                    best = delta;
+                    bestBase = base;
+                }
+            }
+            if (bestBase != null) {
+                candidate.depth = bestBase.depth + 1;
+                deltas.put(candidate.hash, new DeltaEntry(bestBase.hash, deflate(best)));
+            }
+            // the block table is built once here and reused for every blob that comes after in the window,
+            // a blob at the end of a full-length chain never becomes a base so it doesn't need one
+            if (candidate.depth < MAX_DEPTH) {
+                candidate.base = new Delta.Base(content);
+            }
+            window.addLast(candidate);
+            if (window.size() > WINDOW) {
+                window.removeFirst().base = null;
+            }
+        }
+        return deltas;
+    }
+
+    // what each blob was called, without the directory. the index goes first, then every tree
+    // reachable from HEAD's history, then loose trees nothing points at any more.
+    // old versions of a file only show up in history, and those are what deltas are for
+    private static Map<String, String> blobNames(List<String> hashes) throws IOException {
+        Map<String, String> names = new HashMap<>();
+        for (Map.Entry<String, ObjectId> entry : Index.load().entries().entrySet()) {
+            names.putIfAbsent(entry.getValue().toHex(), baseName(entry.getKey()));
+        }
+        Set<ObjectId> seenTrees = new HashSet<>();
+        String head = Git.readHead();
+        if (!head.isEmpty() && ObjectStore.exists(head)) {
+            for (CommitGraph.Commit commit : CommitGraph.open().log(ObjectId.fromHex(head))) {
+                nameBlobs(commit.tree, names, seenTrees);
+            }
+        }
+        for (String hash : hashes) {
+            ObjectId id = ObjectId.fromHex(hash);
+            if (seenTrees.contains(id)) {
+                continue;
+            }
+            try (ObjectStore.ObjectInput in = ObjectStore.open(hash)) {
+                if (!in.type.equals("tree")) {
+                    continue;
+                }
+            }
+            nameBlobs(id, names, seenTrees);
+        }
+        return names;
+    }
+
+    // each tree is read once however many commits share it
+    private static void nameBlobs(ObjectId tree, Map<String, String> names, Set<ObjectId> seenTrees) throws IOException {
+        if (!seenTrees.add(tree) || !ObjectStore.exists(tree.toHex())) {
+            return;
+        }
+        for (Tree.Entry entry : Tree.read(tree)) {
+            if (entry.isTree()) {
+                nameBlobs(entry.id, names, seenTrees);
+            } else {
+                names.putIfAbsent(entry.id.toHex(), baseName(entry.name));
+            }
+        }
+    }
+
+    // trees made by treeify name entries by their whole path
+    private static String baseName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+            deflater.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    // hashes have to be sorted already
+    private static String write(List<String> hashes, Map<String, DeltaEntry> deltas) throws IOException {
+        Path packDir = Paths.get(PACK_DIR);
+        Files.createDirectories(packDir);
+        MessageDigest digest = Git.newDigest();
+        for (String hash : hashes) {
+            digest.update(toBytes(hash));
+        }
+        String name = "pack-" + Git.makeItHex(digest.digest());
+        Path packTemp = AtomicFile.createTemp(packDir, "tmp_pack_");
+        Path idxTemp = AtomicFile.createTemp(packDir, "tmp_idx_");
+        try {
+            ByteBuffer index = ByteBuffer.allocate(HEADER_SIZE + hashes.size() * ENTRY_SIZE);
+            index.putInt(0x50494458).putInt(VERSION).putInt(hashes.size());
+            try (FileChannel out = FileChannel.open(packTemp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(0x5041434B).putInt(VERSION).putInt(hashes.size()).flip();
+                writeFully(out, header);
+                for (String hash : hashes) {
+                    long offset = out.position();
+                    DeltaEntry delta = deltas.get(hash);
+                    if (delta != null) {
+                        ByteBuffer entry = ByteBuffer.allocate(1 + ID_SIZE + delta.deflated.length);
+                        entry.put((byte) DELTA).put(toBytes(delta.base)).put(delta.deflated).flip();
+                        writeFully(out, entry);
+                    } else {
+                        writeFully(out, ByteBuffer.wrap(new byte[] {WHOLE}));
+                        try (FileChannel in = FileChannel.open(ObjectStore.objectFile(hash).toPath(), StandardOpenOption.READ)) {
+                            long length = in.size();
+                            long copied = 0;
+                            while (copied < length) {
+                                copied += in.transferTo(copied, length - copied, out);
+                            }
+                            out.position(offset + 1 + length);
+                        }
+                    }
+                    index.put(toBytes(hash)).putLong(offset).putLong(out.position() - offset);
+                }
+                out.force(true);
+            }
+            Files.write(idxTemp, index.array());
+            AtomicFile.makeReadOnly(packTemp);
+            AtomicFile.makeReadOnly(idxTemp);
+            // pack first, readers only find a pack through its idx
+            Files.move(packTemp, packDir.resolve(name + ".pack"), StandardCopyOption.ATOMIC_MOVE);
+            Files.move(idxTemp, packDir.resolve(name + ".idx"), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(packTemp);
+            Files.deleteIfExists(idxTemp);
+        }
+        return name;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    // reads a slice of the mapping without copying it anywhere first
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
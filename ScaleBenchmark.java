@@ -0,0 +1,294 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * End to end scaling benchmark, a much bigger version of GPTester's createSampleFiles.
+ * It generates a synthetic repo, then times init, add, tree building, commit, status and checkout,
+ * changes a fraction of the files, and times the same steps again incrementally.
+ * Every step reports files/s and MB/s, and the peak RSS (VmHWM) is printed after each repo size.
+ *
+ * Run it from an empty directory, it makes git/ and scale-work/ in the working directory:
+ *     java ScaleBenchmark --files 10000,100000,1000000 --depth 3 --min-size 64 --max-size 65536 --change-rate 0.01
+ * Giving several file counts runs them one after another, and the last column (microseconds per file)
+ * should stay flat as the count grows, if it climbs the step is superlinear.
+ */
+public class ScaleBenchmark {
+    private static final String WORK_DIR = "scale-work";
+    private static final String MARKER = "git/.scale";
+    private static final int FILES_PER_DIR = 100;
+    private static final PrintStream REAL_OUT = System.out;
+
+    private int depth = 3;
+    private int minSize = 64;
+    private int maxSize = 64 * 1024;
+    private double changeRate = 0.01;
+    private long seed = 42;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args) throws Exception {
+        ScaleBenchmark benchmark = new ScaleBenchmark();
+        List<Integer> counts = new ArrayList<>();
+        counts.add(10_000);
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--files":
+                    counts.clear();
+                    for (String count : value.split(",")) {
+                        counts.add(Integer.parseInt(count.replace("_", "").trim()));
+                    }
+                    break;
+                case "--depth":
+                    benchmark.depth = Integer.parseInt(value);
+                    break;
+                case "--min-size":
+                    benchmark.minSize = Integer.parseInt(value);
+                    break;
+                case "--max-size":
+                    benchmark.maxSize = Integer.parseInt(value);
+                    break;
+                case "--change-rate":
+                    benchmark.changeRate = Double.parseDouble(value);
+                    break;
+                case "--seed":
+                    benchmark.seed = Long.parseLong(value);
+                    break;
+                case "--threads":
+                    benchmark.threads = Integer.parseInt(value);
+                    break;
+                default:
+                    System.out.println("unknown option " + args[i]);
+                    System.out.println("options: --files n[,n...] --depth d --min-size bytes --max-size bytes --change-rate fraction --seed s --threads t");
+                    return;
+            }
+            i++;
+        }
+        if (new File("git").exists() && !new File(MARKER).exists()) {
+            System.out.println("git/ already exists here, run ScaleBenchmark from an empty directory");
+            return;
+        }
+        System.out.printf("%-16s %10s %10s %12s %10s %10s%n", "step", "files", "ms", "files/s", "MB/s", "us/file");
+        for (int count : counts) {
+            benchmark.run(count);
+        }
+    }
+
+    private void run(int fileCount) throws Exception {
+        cleanUp();
+        resetPeakRss();
+        Random random = new Random(seed);
+        System.out.println("-- " + fileCount + " files, depth " + depth + ", " + minSize + " to " + maxSize + " bytes, "
+                + changeRate + " change rate");
+
+        long start = System.nanoTime();
+        List<Path> files = new ArrayList<>(fileCount);
+        long bytes = generate(fileCount, random, files);
+        report("generate", fileCount, bytes, start);
+
+        start = System.nanoTime();
+        quietly(Git::makesEntireGitRepo);
+        Files.createFile(Paths.get(MARKER));
+        report("init", 0, 0, start);
+
+        GitWrapper wrapper = new GitWrapper();
+        wrapper.setParallelism(threads);
+        start = System.nanoTime();
+        quietly(() -> check(wrapper.addTree(Paths.get(WORK_DIR))));
+        report("add", fileCount, bytes, start);
+
+        start = System.nanoTime();
+        quietly(Git::workToTree);
+        report("write-tree", fileCount, 0, start);
+
+        // the tree is cached by now, so this is the commit object, the commit-graph and HEAD
+        String[] commit = new String[1];
+        start = System.nanoTime();
+        quietly(() -> commit[0] = wrapper.commit("ScaleBenchmark", "scale run"));
+        report("commit", 0, 0, start);
+        String first = checkCommit(commit[0]);
+
+        // rewrite a fraction of the files, this is the incremental case
+        int changed = (int) Math.round(fileCount * changeRate);
+        long changedBytes = 0;
+        for (int i = 0; i < changed; i++) {
+            Path file = files.get(random.nextInt(files.size()));
+            byte[] content = content(random);
+            Files.write(file, content);
+            changedBytes += content.length;
+        }
+
+        start = System.nanoTime();
+        quietly(() -> check(wrapper.addTree(Paths.get(WORK_DIR))));
+        report("re-add", fileCount, changedBytes, start);
+
+        start = System.nanoTime();
+        quietly(Git::workToTree);
+        report("re-write-tree", changed, 0, start);
+
+        start = System.nanoTime();
+        quietly(() -> commit[0] = wrapper.commit("ScaleBenchmark", "scale run, changed"));
+        report("re-commit", 0, 0, start);
+        String second = checkCommit(commit[0]);
+
+        // a clean working directory, so this is the scan and the stat checks with nothing to hash
+        Status[] status = new Status[1];
+        start = System.nanoTime();
+        quietly(() -> status[0] = wrapper.status());
+        report("status", fileCount, 0, start);
+        if (status[0] == null) {
+            throw new IOException("status failed");
+        }
+
+        start = System.nanoTime();
+        quietly(() -> wrapper.checkout(first));
+        report("checkout-diff", changed, changedBytes, start);
+        checkHead(first);
+
+        start = System.nanoTime();
+        quietly(() -> wrapper.checkout(second));
+        report("checkout-back", changed, changedBytes, start);
+        checkHead(second);
+
+        // and the worst case, nothing on disk and no HEAD to diff against
+        deleteRecursively(Paths.get(WORK_DIR));
+        Files.writeString(Paths.get("git", "HEAD"), "");
+        start = System.nanoTime();
+        quietly(() -> wrapper.checkout(second));
+        report("checkout-full", fileCount, bytes, start);
+        checkHead(second);
+
+        System.out.println("peak RSS " + peakRss() + ", " + ObjectCache.stats().replace("\n", ", "));
+        cleanUp();
+    }
+
+    // spreads the files over directories FILES_PER_DIR at a time, each directory depth levels down
+    private long generate(int fileCount, Random random, List<Path> files) throws IOException {
+        int leaves = Math.max(1, (fileCount + FILES_PER_DIR - 1) / FILES_PER_DIR);
+        int fanout = Math.max(1, (int) Math.ceil(Math.pow(leaves, 1.0 / Math.max(1, depth))));
+        long bytes = 0;
+        for (int i = 0; i < fileCount; i++) {
+            int leaf = i / FILES_PER_DIR;
+            StringBuilder path = new StringBuilder(WORK_DIR);
+            for (int level = 0; level < depth; level++) {
+                path.append("/d").append(leaf % fanout);
+                leaf /= fanout;
+            }
+            Path file = Paths.get(path.append("/file").append(i).append(".txt").toString());
+            if (i % FILES_PER_DIR == 0) {
+                Files.createDirectories(file.getParent());
+            }
+            byte[] content = content(random);
+            Files.write(file, content);
+            bytes += content.length;
+            files.add(file);
+        }
+        return bytes;
+    }
+
+    // sizes are log-uniform between min and max, lots of small files and a few big ones like real repos,
+    // the contents are text so they compress about like source code
+    private byte[] content(Random random) {
+        double logMin = Math.log(Math.max(1, minSize));
+        double logMax = Math.log(Math.max(minSize, maxSize));
+        int size = (int) Math.exp(logMin + random.nextDouble() * (logMax - logMin));
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = i % 64 == 63 ? (byte) '\n' : (byte) ('a' + random.nextInt(26));
+        }
+        return content;
+    }
+
+    private static void check(Map<Path, IOException> failures) throws IOException {
+        if (!failures.isEmpty()) {
+            throw failures.values().iterator().next();
+        }
+    }
+
+    // the wrapper reports failures on System.out, which is silenced during a step,
+    // so a failed step would otherwise look like a very fast one
+    private static String checkCommit(String hash) throws IOException {
+        if (hash == null || hash.isEmpty()) {
+            throw new IOException("commit failed");
+        }
+        return hash;
+    }
+
+    private static void checkHead(String expected) throws IOException {
+        if (!Git.readHead().equals(expected)) {
+            throw new IOException("checkout of " + expected + " failed, HEAD is " + Git.readHead());
+        }
+    }
+
+    private static void report(String step, long files, long bytes, long start) {
+        long nanos = Math.max(1, System.nanoTime() - start);
+        double seconds = nanos / 1e9;
+        REAL_OUT.printf("%-16s %10d %10.1f %12s %10s %10s%n", step, files, nanos / 1e6,
+                files == 0 ? "-" : String.format("%.0f", files / seconds),
+                bytes == 0 ? "-" : String.format("%.1f", bytes / seconds / (1 << 20)),
+                files == 0 ? "-" : String.format("%.2f", nanos / 1e3 / files));
+    }
+
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    // the wrapper prints a line per file, which at a million files is what would get measured
+    private static void quietly(Step step) throws Exception {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            step.run();
+        } finally {
+            System.setOut(REAL_OUT);
+        }
+    }
+
+    // VmHWM is the high water mark of resident memory, only there on Linux
+    private static String peakRss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return line.substring(6).trim();
+                }
+            }
+        } catch (IOException e) {
+            // not Linux
+        }
+        return "unknown";
+    }
+
+    // writing 5 to clear_refs resets VmHWM, so each repo size gets its own peak
+    private static void resetPeakRss() {
+        try {
+            Files.writeString(Paths.get("/proc/self/clear_refs"), "5");
+        } catch (IOException e) {
+            // older kernel or not Linux, the peak just carries over from the last size
+        }
+    }
+
+    private static void cleanUp() throws IOException {
+        deleteRecursively(Paths.get("git"));
+        deleteRecursively(Paths.get(WORK_DIR));
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the file system says about a file: size, mtime, ctime and inode.
+ * If none of these changed since the file was staged, its content didn't either,
+ * so there's no need to hash it again.
+ */
+public class StatData {
+    public final long size;
+    public final long mtime;
+    public final long ctime;
+    public final long inode;
+
+    public StatData(long size, long mtime, long ctime, long inode) {
+        this.size = size;
+        this.mtime = mtime;
+        this.ctime = ctime;
+        this.inode = inode;
+    }
+
+    /**
+     * Reads the stat data with a single attribute call where the platform allows it.
+     * Times are in nanoseconds.
+     */
+    public static StatData read(Path path) throws IOException {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(path, "unix:size,lastModifiedTime,ctime,ino");
+            return new StatData((Long) attrs.get("size"), nanos((FileTime) attrs.get("lastModifiedTime")),
+                    nanos((FileTime) attrs.get("ctime")), (Long) attrs.get("ino"));
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // no unix view (windows), fall back to what every platform has:
+            // creation time stands in for ctime and the file key for the inode
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            Object key = attrs.fileKey();
+            return new StatData(attrs.size(), nanos(attrs.lastModifiedTime()), nanos(attrs.creationTime()),
+                    key == null ? 0 : key.hashCode());
+        }
+    }
+
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StatData)) {
+            return false;
+        }
+        StatData other = (StatData) o;
+        return size == other.size && mtime == other.mtime && ctime == other.ctime && inode == other.inode;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(size) * 31 + Long.hashCode(mtime);
+    }
+
+    @Override
+    public String toString() {
+        return size + " " + mtime + " " + ctime + " " + inode;
+    }
+
+    /**
+     * Parses what toString wrote.
+     */
+    public static StatData parse(String size, String mtime, String ctime, String inode) {
+        return new StatData(Long.parseLong(size), Long.parseLong(mtime), Long.parseLong(ctime), Long.parseLong(inode));
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What differs between HEAD, the index and the working directory.
+ * staged is the index against HEAD's tree, unstaged is the working directory against the index
+ * (changed or deleted tracked files) and untracked is files the index doesn't have.
+ *
+ * The working directory is scanned with a task per directory, so subdirectories are listed
+ * in parallel. A tracked file whose stat data still matches the index isn't read at all,
+ * only the rest get hashed. Files that were hashed and turned out unchanged get their stat data
+ * refreshed in the index, so the next status can skip them.
+ * The index side is hashed into trees (reusing the cache-tree) and compared with HEAD's trees,
+ * where any subtree with the same hash is skipped without being read.
+ */
+public class Status {
+    public final List<String> staged;
+    public final List<String> unstaged;
+    public final List<String> untracked;
+
+    private Status(List<String> staged, List<String> unstaged, List<String> untracked) {
+        this.staged = Collections.unmodifiableList(staged);
+        this.unstaged = Collections.unmodifiableList(unstaged);
+        this.untracked = Collections.unmodifiableList(untracked);
+    }
+
+    public boolean isClean() {
+        return staged.isEmpty() && unstaged.isEmpty() && untracked.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "staged " + staged + ", unstaged " + unstaged + ", untracked " + untracked;
+    }
+
+    /**
+     * Works out the status of the repo in the working directory.
+     * @param parallelism How many threads scan and hash the working directory.
+     */
+    public static Status compute(int parallelism) throws IOException {
+        Index index = Index.load();
+        DirectoryScanner scanner = DirectoryScanner.ofWorkingDirectory();
+        ScanTask root = new ScanTask(scanner.getRoot(), "", scanner, index);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(root);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+
+        List<String> unstaged = new ArrayList<>(root.unstaged);
+        // fewer tracked files turned up than the index has, find the ones that are gone.
+        // only those paths get stat'ed again, and only when something is missing
+        if (root.tracked.sum() != index.size()) {
+            for (String path : index.entries().keySet()) {
+                if (!Files.isRegularFile(scanner.getRoot().resolve(path), LinkOption.NOFOLLOW_LINKS)) {
+                    unstaged.add(path);
+                }
+            }
+        }
+        if (!root.refreshed.isEmpty()) {
+            for (Refreshed file : root.refreshed) {
+                index.put(file.path, file.id, file.stat);
+            }
+            index.flush();
+        }
+
+        List<String> staged = new ArrayList<>();
+        TreeBuilder.Node tree = TreeBuilder.hashTree(index);
+        String head = Git.readHead();
+        if (head.isEmpty()) {
+            addAll(tree, "", staged);
+        } else {
+            diff(tree, ObjectId.fromHex(Tree.ofCommit(head)), "", staged);
+        }
+
+        List<String> untracked = new ArrayList<>(root.untracked);
+        staged.sort(Index.PATH_ORDER);
+        unstaged.sort(Index.PATH_ORDER);
+        untracked.sort(Index.PATH_ORDER);
+        return new Status(staged, unstaged, untracked);
+    }
+
+    // a tracked file that was hashed and found unchanged, with the stat data it has now
+    private static class Refreshed {
+        final String path;
+        final ObjectId id;
+        final StatData stat;
+
+        Refreshed(String path, ObjectId id, StatData stat) {
+            this.path = path;
+            this.id = id;
+            this.stat = stat;
+        }
+    }
+
+    // one task per directory. files are checked right here, subdirectories are forked.
+    // every task of one scan adds to the same queues, the caller sorts them afterwards
+    private static class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final String relativeDir;
+        private final DirectoryScanner scanner;
+        // only read while scanning, so the tasks can share it without locking
+        private final Index index;
+        private final Queue<String> unstaged;
+        private final Queue<String> untracked;
+        private final Queue<Refreshed> refreshed;
+        private final LongAdder tracked;
+
+        ScanTask(Path dir, String relativeDir, DirectoryScanner scanner, Index index) {
+            this(dir, relativeDir, scanner, index, new ConcurrentLinkedQueue<>(), new ConcurrentLinkedQueue<>(),
+                    new ConcurrentLinkedQueue<>(), new LongAdder());
+        }
+
+        private ScanTask(Path dir, String relativeDir, DirectoryScanner scanner, Index index, Queue<String> unstaged,
+                Queue<String> untracked, Queue<Refreshed> refreshed, LongAdder tracked) {
+            this.dir = dir;
+            this.relativeDir = relativeDir;
+            this.scanner = scanner;
+            this.index = index;
+            this.unstaged = unstaged;
+            this.untracked = untracked;
+            this.refreshed = refreshed;
+            this.tracked = tracked;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                List<ScanTask> subdirectories = new ArrayList<>();
+                for (DirectoryScanner.Entry entry : scanner.list(dir, relativeDir)) {
+                    if (entry.isFile()) {
+                        checkFile(entry);
+                    } else if (entry.isDirectory() && !entry.relativePath.equals("git")) {
+                        subdirectories.add(new ScanTask(entry.path, entry.relativePath, scanner, index,
+                                unstaged, untracked, refreshed, tracked));
+                    }
+                }
+                ForkJoinTask.invokeAll(subdirectories);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void checkFile(DirectoryScanner.Entry entry) throws IOException {
+            String path = entry.relativePath;
+            ObjectId staged = index.getId(path);
+            if (staged == null) {
+                untracked.add(path);
+                return;
+            }
+            tracked.increment();
+            StatData stat = StatData.read(entry.path);
+            if (index.isUpToDate(path, stat)) {
+                return;
+            }
+            String hash = Git.hashFile(entry.path.toString());
+            if (hash == null) {
+                throw new IOException("Cannot read " + path);
+            }
+            if (staged.equals(ObjectId.fromHex(hash))) {
+                refreshed.add(new Refreshed(path, staged, stat));
+            } else {
+                unstaged.add(path);
+            }
+        }
+    }
+
+    // the index's tree against HEAD's, same walk as checkout's updateTree.
+    // a node whose hash matches its HEAD tree is skipped along with everything under it
+    private static void diff(TreeBuilder.Node node, ObjectId headTree, String dirPath, List<String> staged) throws IOException {
+        if (headTree.equals(node.id)) {
+            return;
+        }
+        Map<String, Tree.Entry> headEntries = new LinkedHashMap<>();
+        for (Tree.Entry entry : Tree.read(headTree)) {
+            headEntries.put(entry.name, entry);
+        }
+        for (Map.Entry<String, ObjectId> blob : node.blobs.entrySet()) {
+            String path = childPath(dirPath, blob.getKey());
+            Tree.Entry head = headEntries.remove(blob.getKey());
+            if (head == null || !head.id.equals(blob.getValue())) {
+                staged.add(path);
+            }
+            if (head != null && head.isTree()) {
+                addAll(head.id, path, staged);
+            }
+        }
+        for (Map.Entry<String, TreeBuilder.Node> tree : node.trees.entrySet()) {
+            String path = childPath(dirPath, tree.getKey());
+            Tree.Entry head = headEntries.remove(tree.getKey());
+            if (head != null && head.isTree()) {
+                diff(tree.getValue(), head.id, path, staged);
+                continue;
+            }
+            if (head != null) {
+                staged.add(path);
+            }
+            addAll(tree.getValue(), path, staged);
+        }
+        // whatever is left was committed and has been removed from the index since
+        for (Tree.Entry head : headEntries.values()) {
+            String path = childPath(dirPath, head.name);
+            if (head.isTree()) {
+                addAll(head.id, path, staged);
+            } else {
+                staged.add(path);
+            }
+        }
+    }
+
+    // every file under an index directory
+    private static void addAll(TreeBuilder.Node node, String dirPath, List<String> staged) {
+        for (String name : node.blobs.keySet()) {
+            staged.add(childPath(dirPath, name));
+        }
+        for (Map.Entry<String, TreeBuilder.Node> tree : node.trees.entrySet()) {
+            addAll(tree.getValue(), childPath(dirPath, tree.getKey()), staged);
+        }
+    }
+
+    // every file under a stored tree
+    private static void addAll(ObjectId treeHash, String dirPath, List<String> staged) throws IOException {
+        for (Tree.Entry entry : Tree.read(treeHash)) {
+            String path = childPath(dirPath, entry.name);
+            if (entry.isTree()) {
+                addAll(entry.id, path, staged);
+            } else {
+                staged.add(path);
+            }
+        }
+    }
+
+    private static String childPath(String dirPath, String name) {
+        return dirPath.isEmpty() ? name : dirPath + "/" + name;
+    }
+}
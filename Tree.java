@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed tree object: one "type hash name" line per entry.
+ */
+public class Tree {
+
+    public static class Entry {
+        public final String type;
+        public final ObjectId id;
+        public final String name;
+
+        public Entry(String type, ObjectId id, String name) {
+            this.type = type;
+            this.id = id;
+            this.name = name;
+        }
+
+        public boolean isTree() {
+            return type.equals("tree");
+        }
+    }
+
+    /**
+     * Reads and parses a tree object. Names may contain spaces, everything after the hash is the name.
+     * Parsed trees are kept in ObjectCache.TREES, so the list that comes back can't be modified.
+     */
+    public static List<Entry> read(String treeHash) throws IOException {
+        return read(ObjectId.fromHex(treeHash));
+    }
+
+    public static List<Entry> read(ObjectId treeHash) throws IOException {
+        List<Entry> cached = ObjectCache.TREES.get(treeHash);
+        if (cached != null) {
+            return cached;
+        }
+        List<Entry> entries = new ArrayList<>();
+        for (String line : ObjectStore.readString(treeHash.toHex()).split("\n")) {
+            String[] parts = line.split(" ", 3);
+            if (parts.length == 3) {
+                entries.add(new Entry(parts[0], ObjectId.fromHex(parts[1]), parts[2]));
+            }
+        }
+        entries = Collections.unmodifiableList(entries);
+        ObjectCache.TREES.put(treeHash, entries);
+        return entries;
+    }
+
+    // rough heap size of a parsed tree, for the cache limit
+    static long weight(List<Entry> entries) {
+        long weight = 64;
+        for (Entry entry : entries) {
+            weight += 96 + 2L * entry.name.length();
+        }
+        return weight;
+    }
+
+    /**
+     * Finds the root tree of a commit from its "tree: sha" line.
+     */
+    public static String ofCommit(String commitHash) throws IOException {
+        for (String line : ObjectStore.readString(commitHash).split("\n")) {
+            if (line.startsWith("tree:")) {
+                return line.substring(5).trim();
+            }
+        }
+        throw new IOException("no tree reference found in commit");
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Builds tree objects from index entries completely in memory.
+ * The sorted entries are turned into a path trie in one pass, then every directory
+ * is hashed bottom-up, children before parents, and written to the object store.
+ * Each tree lists its blobs first and then its subtrees, both sorted by name,
+ * one "type hash name" line per entry. For nested directories that isn't always the order the
+ * old workingList loop wrote (it could list a later subtree first, e.g. b before a), so the same
+ * files committed before and after TreeBuilder can have different tree and commit hashes.
+ * When building from an Index, directories whose cached tree hash is still valid are
+ * not rehashed or rewritten at all, so the cost follows how many directories changed.
+ */
+public class TreeBuilder {
+
+    /**
+     * One directory of the trie, its blobs and subdirectories by name.
+     * id is its tree hash once it has been written or hashed.
+     */
+    public static class Node {
+        public final TreeMap<String, ObjectId> blobs = new TreeMap<>();
+        public final TreeMap<String, Node> trees = new TreeMap<>();
+        public ObjectId id;
+    }
+
+    /**
+     * Writes every tree for the given entries.
+     * @param entries path -> blob hash, paths relative to the repo root using '/'.
+     * @return The hash of the root tree.
+     */
+    public static String writeTree(SortedMap<String, ObjectId> entries) throws IOException {
+        return write(buildTrie(entries), "", null).toHex();
+    }
+
+    /**
+     * Writes the trees for everything staged in the index, reusing and updating its cache-tree.
+     * The caller still has to flush the index to keep the new cached hashes.
+     * @return The hash of the root tree.
+     */
+    public static String writeTree(Index index) throws IOException {
+        return write(buildTrie(index.entries()), "", index).toHex();
+    }
+
+    /**
+     * Works out the tree hash of every directory in the index without writing any objects
+     * or touching the index, for comparing against trees that are already stored.
+     * Cached tree hashes are used where they're still valid.
+     * @return The root of the trie, every node with its id filled in.
+     */
+    public static Node hashTree(Index index) throws IOException {
+        Node root = buildTrie(index.entries());
+        hash(root, "", index);
+        return root;
+    }
+
+    private static Node buildTrie(SortedMap<String, ObjectId> entries) {
+        Node root = new Node();
+        for (Map.Entry<String, ObjectId> entry : entries.entrySet()) {
+            String path = entry.getKey();
+            Node node = root;
+            int start = 0;
+            int slash;
+            while ((slash = path.indexOf('/', start)) != -1) {
+                node = node.trees.computeIfAbsent(path.substring(start, slash), name -> new Node());
+                start = slash + 1;
+            }
+            node.blobs.put(path.substring(start), entry.getValue());
+        }
+        return root;
+    }
+
+    private static ObjectId write(Node node, String dirPath, Index index) throws IOException {
+        if (index != null) {
+            ObjectId cached = index.getCachedTree(dirPath);
+            if (cached != null && ObjectStore.exists(cached.toHex())) {
+                node.id = cached;
+                return cached;
+            }
+        }
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, ObjectId> blob : node.blobs.entrySet()) {
+            appendLine(contents, "blob", blob.getValue(), blob.getKey());
+        }
+        for (Map.Entry<String, Node> tree : node.trees.entrySet()) {
+            appendLine(contents, "tree", write(tree.getValue(), childPath(dirPath, tree.getKey()), index), tree.getKey());
+        }
+        ObjectId hash = ObjectId.fromHex(ObjectStore.writeObject("tree", contents.toString().getBytes(StandardCharsets.UTF_8)));
+        if (index != null) {
+            index.putCachedTree(dirPath, hash);
+        }
+        node.id = hash;
+        return hash;
+    }
+
+    // same as write, minus the writing. subdirectories are always visited, even under a cached
+    // tree, so every node ends up with an id (for cached ones that's just a map lookup)
+    private static ObjectId hash(Node node, String dirPath, Index index) throws IOException {
+        for (Map.Entry<String, Node> tree : node.trees.entrySet()) {
+            hash(tree.getValue(), childPath(dirPath, tree.getKey()), index);
+        }
+        ObjectId cached = index.getCachedTree(dirPath);
+        if (cached != null) {
+            node.id = cached;
+            return cached;
+        }
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, ObjectId> blob : node.blobs.entrySet()) {
+            appendLine(contents, "blob", blob.getValue(), blob.getKey());
+        }
+        for (Map.Entry<String, Node> tree : node.trees.entrySet()) {
+            appendLine(contents, "tree", tree.getValue().id, tree.getKey());
+        }
+        node.id = ObjectId.fromBytes(Git.newDigest().digest(contents.toString().getBytes(StandardCharsets.UTF_8)));
+        return node.id;
+    }
+
+    private static String childPath(String dirPath, String name) {
+        return dirPath.isEmpty() ? name : dirPath + "/" + name;
+    }
+
+    // no newline after the last line, same as the trees workToTree always made
+    private static void appendLine(StringBuilder contents, String type, ObjectId hash, String name) {
+        if (contents.length() > 0) {
+            contents.append('\n');
+        }
+        contents.append(type).append(' ').append(hash.toHex()).append(' ').append(name);
+    }
+}
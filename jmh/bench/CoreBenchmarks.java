@@ -0,0 +1,222 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the core object operations.
+ *
+ * The classes under test live in the default package, which a packaged class can't import
+ * (and JMH won't generate code for a benchmark in the default package), so they're called
+ * through method handles. The handles are static finals, which the JIT folds into plain calls.
+ *
+ * Everything works on git/ in the current directory, so run the jar from an empty directory,
+ * see the bench profile in pom.xml. A directory with a git/ the benchmarks didn't make is refused.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CoreBenchmarks {
+    private static final MethodHandle MAKE_REPO = find("Git", "makesEntireGitRepo", MethodType.methodType(void.class));
+    private static final MethodHandle HASH_FILE = find("Git", "hashFile", MethodType.methodType(String.class, String.class));
+    private static final MethodHandle MAKE_IT_HEX = find("Git", "makeItHex", MethodType.methodType(String.class, byte[].class));
+    private static final MethodHandle CREATE_BLOB = find("Git", "createBlobFiles", MethodType.methodType(String.class, String.class));
+    private static final MethodHandle UPDATE_INDEX = find("Git", "updateIndex", MethodType.methodType(void.class, String.class, String.class));
+    private static final MethodHandle WORK_TO_TREE = find("Git", "workToTree", MethodType.methodType(String.class));
+    private static final MethodHandle TREEIFY = find("Git", "treeify", MethodType.methodType(String.class, String.class));
+    private static final MethodHandle RESTORE_TREE = find("GitWrapper", "restoreTree", MethodType.methodType(void.class, String.class, File.class));
+
+    private static final String MARKER = "git/.bench";
+    private static final String WORK_DIR = "bench-work";
+    private static final String RESTORE_DIR = "bench-restore";
+    // how many files share a directory when spreading entryCount files out
+    private static final int FILES_PER_DIR = 50;
+
+    private static MethodHandle find(String className, String name, MethodType type) {
+        try {
+            return MethodHandles.publicLookup().findStatic(Class.forName(className), name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // a fresh repo in the working directory, refusing to touch one we didn't make
+    static void freshRepo() throws Throwable {
+        if (new File("git").exists() && !new File(MARKER).exists()) {
+            throw new IllegalStateException("git/ already exists in " + new File(".").getAbsolutePath()
+                    + ", run the benchmarks from an empty directory");
+        }
+        deleteRecursively(Paths.get("git"));
+        deleteRecursively(Paths.get(WORK_DIR));
+        deleteRecursively(Paths.get(RESTORE_DIR));
+        MAKE_REPO.invokeExact();
+        Files.createFile(Paths.get(MARKER));
+    }
+
+    static void cleanUp() throws IOException {
+        deleteRecursively(Paths.get("git"));
+        deleteRecursively(Paths.get(WORK_DIR));
+        deleteRecursively(Paths.get(RESTORE_DIR));
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    /**
+     * One file of fileSize random bytes.
+     */
+    @State(Scope.Benchmark)
+    public static class FileState {
+        @Param({"1024", "65536", "1048576", "16777216"})
+        public int fileSize;
+
+        public String path;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Throwable {
+            freshRepo();
+            Files.createDirectories(Paths.get(WORK_DIR));
+            byte[] content = new byte[fileSize];
+            new Random(fileSize).nextBytes(content);
+            path = WORK_DIR + "/file.bin";
+            Files.write(Paths.get(path), content);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            cleanUp();
+        }
+    }
+
+    /**
+     * entryCount small files, FILES_PER_DIR to a directory, all staged, with the tree written once.
+     */
+    @State(Scope.Benchmark)
+    public static class RepoState {
+        @Param({"100", "1000", "10000"})
+        public int entryCount;
+
+        public String changedFile;
+        public String[] changedHashes;
+        public String treeHash;
+        private int flip;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Throwable {
+            freshRepo();
+            for (int i = 0; i < entryCount; i++) {
+                String path = WORK_DIR + "/dir" + (i / FILES_PER_DIR) + "/file" + i + ".txt";
+                Files.createDirectories(Paths.get(path).getParent());
+                Files.writeString(Paths.get(path), "contents of file " + i + "\n");
+                String hash = (String) CREATE_BLOB.invokeExact(path);
+                UPDATE_INDEX.invokeExact(hash, path);
+            }
+            changedFile = WORK_DIR + "/dir0/file0.txt";
+            changedHashes = new String[2];
+            for (int i = 0; i < 2; i++) {
+                Path version = Paths.get(WORK_DIR, "version" + i + ".tmp");
+                Files.writeString(version, "version " + i + "\n");
+                changedHashes[i] = (String) CREATE_BLOB.invokeExact(version.toString());
+                Files.delete(version);
+            }
+            treeHash = (String) WORK_TO_TREE.invokeExact();
+            Files.createDirectories(Paths.get(RESTORE_DIR));
+        }
+
+        // alternates between two hashes so every call really changes the index
+        String nextHash() {
+            flip ^= 1;
+            return changedHashes[flip];
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            cleanUp();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DigestState {
+        public final byte[] digest = new byte[20];
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            new Random(20).nextBytes(digest);
+        }
+    }
+
+    @Benchmark
+    public String hashFile(FileState state) throws Throwable {
+        return (String) HASH_FILE.invokeExact(state.path);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String makeItHex(DigestState state) throws Throwable {
+        return (String) MAKE_IT_HEX.invokeExact(state.digest);
+    }
+
+    // the object already exists after the first call, so this is hash + compress into a temp file,
+    // which install then deletes instead of renaming into place
+    @Benchmark
+    public String createBlobFiles(FileState state) throws Throwable {
+        return (String) CREATE_BLOB.invokeExact(state.path);
+    }
+
+    // restaging one entry with a new hash, which is a full index rewrite
+    @Benchmark
+    public void updateIndex(RepoState state) throws Throwable {
+        UPDATE_INDEX.invokeExact(state.nextHash(), state.changedFile);
+    }
+
+    // one staged file changes each time, so one directory and the root get rebuilt and the rest come from the cache-tree
+    @Benchmark
+    public String workToTree(RepoState state) throws Throwable {
+        UPDATE_INDEX.invokeExact(state.nextHash(), state.changedFile);
+        return (String) WORK_TO_TREE.invokeExact();
+    }
+
+    @Benchmark
+    public String treeify(RepoState state) throws Throwable {
+        return (String) TREEIFY.invokeExact(WORK_DIR);
+    }
+
+    @Benchmark
+    public void restoreTree(RepoState state) throws Throwable {
+        RESTORE_TREE.invokeExact(state.treeHash, new File(RESTORE_DIR));
+    }
+}